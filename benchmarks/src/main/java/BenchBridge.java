@@ -0,0 +1,187 @@
+import bookmanager.bench.AppBridge;
+import bookmanager.bench.Latencies;
+import bookmanager.bench.SyntheticBooks;
+import bookmanager.bench.Workload;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// The benchmarks' only way into the app; see AppBridge. It sits in the
+// default package with the app, so every use of the app below is checked
+// when it compiles.
+public class BenchBridge implements AppBridge {
+    
+    @Override
+    public Workload newWorkload() {
+        return new LibraryWorkload();
+    }
+    
+    @Override
+    public Latencies newLatencies() {
+        return new HistogramLatencies();
+    }
+    
+    private static final class LibraryWorkload implements Workload {
+        // The manager saves into the working directory under these names.
+        private static final String[] SAVED_FILES = {
+            "books_collection.store", "books_collection.journal", "books_collection.journal.compacting"
+        };
+        
+        private LibraryManager manager;
+        private SyntheticBooks generator;
+        private List<Book> books;
+        private int nextUpdate;
+        
+        @Override
+        public void populate(int size, long seed) {
+            manager = new LibraryManager();
+            generator = new SyntheticBooks(seed);
+            books = new ArrayList<>(size);
+            while (books.size() < size) {
+                Book book = toBook(generator.next());
+                if (manager.addBookToCollection(book)) {
+                    books.add(book);
+                }
+            }
+            nextUpdate = 0;
+        }
+        
+        @Override
+        public boolean addNext() {
+            while (true) {
+                Book book = toBook(generator.next());
+                if (manager.addBookToCollection(book)) {
+                    return true;
+                }
+            }
+        }
+        
+        @Override
+        public boolean updateNext() {
+            int position = nextUpdate;
+            nextUpdate = (nextUpdate + 1) % books.size();
+            Book current = books.get(position);
+            Book moved = new Book(current.getBookName(), current.getWriter(),
+                                  current.getPublishDate(), generator.category());
+            moved.setInStock(current.isInStock());
+            if (!manager.updateExistingBook(current, moved)) {
+                return false;
+            }
+            books.set(position, moved);
+            return true;
+        }
+        
+        @Override
+        public Object locateByTitle(String title) {
+            return manager.locateBookByTitle(title);
+        }
+        
+        @Override
+        public List<?> findBooks(String term) {
+            return manager.findBooks(term);
+        }
+        
+        @Override
+        public List<?> searchWithFilters(String title, String author, String category, Integer year) {
+            return manager.searchWithFilters(title, author, category, year);
+        }
+        
+        @Override
+        public List<?> oldBooks() {
+            return manager.getOldBooks();
+        }
+        
+        @Override
+        public boolean save() {
+            return manager.saveMyLibrary();
+        }
+        
+        @Override
+        public boolean load() {
+            return manager.loadMyLibrary();
+        }
+        
+        @Override
+        public void deleteSaved() {
+            try {
+                for (String name : SAVED_FILES) {
+                    Files.deleteIfExists(Paths.get(name));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        @Override
+        public void requireNothingSaved() {
+            for (String name : SAVED_FILES) {
+                Path file = Paths.get(name);
+                if (Files.exists(file)) {
+                    throw new IllegalStateException(file.toAbsolutePath()
+                            + " already exists; run the benchmarks from an empty directory");
+                }
+            }
+        }
+        
+        @Override
+        public String[] sampleTitles(int count) {
+            String[] titles = new String[count];
+            for (int i = 0; i < count; i++) {
+                titles[i] = books.get((int) ((long) i * books.size() / count)).getBookName();
+            }
+            return titles;
+        }
+        
+        @Override
+        public String[] sampleTerms(int count) {
+            String[] terms = new String[count];
+            for (int i = 0; i < count; i++) {
+                Book book = books.get((int) ((long) i * books.size() / count));
+                String source = i % 2 == 0 ? book.getBookName() : book.getWriter();
+                int start = source.length() / 3;
+                terms[i] = source.substring(start, Math.min(source.length(), start + 5)).toLowerCase();
+            }
+            return terms;
+        }
+        
+        private static Book toBook(SyntheticBooks.Sample sample) {
+            Book book = new Book(sample.title, sample.author, sample.year, sample.category);
+            book.setInStock(sample.inStock);
+            return book;
+        }
+    }
+    
+    private static final class HistogramLatencies implements Latencies {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        
+        @Override
+        public void record(long nanos) {
+            histogram.record(nanos);
+        }
+        
+        @Override
+        public long count() {
+            return histogram.snapshot().count();
+        }
+        
+        @Override
+        public double mean() {
+            return histogram.snapshot().mean();
+        }
+        
+        @Override
+        public long percentile(double percent) {
+            return histogram.snapshot().percentile(percent);
+        }
+        
+        @Override
+        public long max() {
+            return histogram.snapshot().max();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package bookmanager.bench;
+
+// The way into the app. JMH won't run benchmarks that sit in the default
+// package, and the app lives there, where no named package can refer to it.
+// So everything the benchmarks use of the app goes through the one
+// default-package class BenchBridge, which refers to the app directly and is
+// checked when it compiles; only its own name is looked up at run time.
+public interface AppBridge {
+    String CLASS_NAME = "BenchBridge";
+    
+    Workload newWorkload();
+    
+    Latencies newLatencies();
+    
+    static AppBridge get() {
+        try {
+            return (AppBridge) Class.forName(CLASS_NAME).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(CLASS_NAME + " is missing from the classpath", e);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package bookmanager.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The searches of QueryBenchmark with the query cache on. The samples are
+// asked for over and over, so after warmup these time cache hits; the limit
+// is raised so that even the old books of the largest collection are kept.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Dbookmanager.cache.maxBooks=16777216" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CachedQueryBenchmark {
+    private static final int SAMPLES = 64;
+    
+    @Param({ "1000", "100000", "1000000" })
+    public int size;
+    
+    private Workload workload;
+    private String[] terms;
+    private int next;
+    
+    @Setup(Level.Trial)
+    public void populate() {
+        workload = Workload.create();
+        workload.populate(size, 42);
+        terms = workload.sampleTerms(SAMPLES);
+    }
+    
+    private int nextSample() {
+        next = (next + 1) % SAMPLES;
+        return next;
+    }
+    
+    @Benchmark
+    public List<?> findBooks() {
+        return workload.findBooks(terms[nextSample()]);
+    }
+    
+    @Benchmark
+    public List<?> searchWithFilters() {
+        return workload.searchWithFilters(null, terms[nextSample()], null, null);
+    }
+    
+    @Benchmark
+    public List<?> getOldBooks() {
+        return workload.oldBooks();
+    }
+}
@@ -0,0 +1,21 @@
+package bookmanager.bench;
+
+// A histogram of latencies in nanoseconds that many threads record into at
+// once, backed by the app's LatencyHistogram through AppBridge.
+public interface Latencies {
+    
+    void record(long nanos);
+    
+    // The readings below look at what was recorded when they are called.
+    long count();
+    
+    double mean();
+    
+    long percentile(double percent);
+    
+    long max();
+    
+    static Latencies create() {
+        return AppBridge.get().newLatencies();
+    }
+}
@@ -0,0 +1,283 @@
+package bookmanager.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+// Drives a running LibraryApp -server over many connections at once and
+// reports throughput and latency percentiles. Every connection is a client
+// of its own on its own thread: it sends a request, reads the answer and
+// sends the next, keeping -pipeline requests in flight. Latency runs from
+// writing a request to having read its answer, so with pipelining it
+// includes the wait behind the requests ahead of it.
+//
+//   java -cp benchmarks/target/benchmarks.jar bookmanager.bench.LoadGenerator [-port 8080]
+//        [-connections 1000] [-seconds 30] [-warmup 5] [-writes 5]
+//        [-books 100000] [-pipeline 1]
+//
+// The server is first sent -books synthetic books in batches. The load is
+// lookups by exact key, title searches and full-text finds in equal parts,
+// with -writes percent of the requests adding a new book instead.
+public class LoadGenerator {
+    private static final int POPULATE_BATCH = 5000;
+    private static final int THREAD_STACK = 256 << 10;
+    private static final String[] KINDS = {"lookup", "search", "find", "add"};
+    
+    private final int port;
+    private final int connections;
+    private final int seconds;
+    private final int warmup;
+    private final int writes;
+    private final int pipeline;
+    private final List<SyntheticBooks.Sample> books = new ArrayList<>();
+    private final Latencies[] latencies = new Latencies[KINDS.length];
+    private final Latencies all = Latencies.create();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder failedConnections = new LongAdder();
+    
+    private LoadGenerator(int port, int connections, int seconds, int warmup, int writes, int pipeline) {
+        this.port = port;
+        this.connections = connections;
+        this.seconds = seconds;
+        this.warmup = warmup;
+        this.writes = writes;
+        this.pipeline = pipeline;
+        for (int i = 0; i < KINDS.length; i++) {
+            latencies[i] = Latencies.create();
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int port = option(args, "-port", 8080);
+        LoadGenerator generator = new LoadGenerator(port, option(args, "-connections", 1000),
+                                                    option(args, "-seconds", 30), option(args, "-warmup", 5),
+                                                    option(args, "-writes", 5), Math.max(1, option(args, "-pipeline", 1)));
+        generator.populate(option(args, "-books", 100_000));
+        generator.run();
+    }
+    
+    private static int option(String[] args, String name, int fallback) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) return Integer.parseInt(args[i + 1]);
+        }
+        return fallback;
+    }
+    
+    private void populate(int count) throws IOException {
+        SyntheticBooks generator = new SyntheticBooks(42);
+        try (Connection connection = new Connection(port)) {
+            while (books.size() < count) {
+                StringBuilder batch = new StringBuilder();
+                for (int i = 0; i < POPULATE_BATCH && books.size() < count; i++) {
+                    SyntheticBooks.Sample book = generator.next();
+                    books.add(book);
+                    appendJson(batch, book);
+                }
+                connection.send("POST", "/books", batch.toString().getBytes(StandardCharsets.UTF_8));
+                int status = connection.readResponse();
+                if (status != 200) throw new IOException("Adding books failed with status " + status);
+            }
+        }
+        System.out.println("Sent " + books.size() + " books");
+    }
+    
+    private void run() throws InterruptedException {
+        CountDownLatch connected = new CountDownLatch(connections);
+        CountDownLatch start = new CountDownLatch(1);
+        LongAdder completed = new LongAdder();
+        long[] window = new long[2];
+        List<Thread> threads = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            int client = i;
+            Thread thread = new Thread(null, () -> drive(client, connected, start, window, completed),
+                                       "load-" + i, THREAD_STACK);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        connected.await();
+        System.out.println("Opened " + (connections - failedConnections.sum()) + " connections");
+        
+        long now = System.nanoTime();
+        window[0] = now + warmup * 1_000_000_000L;
+        window[1] = window[0] + seconds * 1_000_000_000L;
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        report(completed.sum());
+    }
+    
+    // Requests answered before the warm-up ends or after the window closes
+    // aren't counted.
+    private void drive(int client, CountDownLatch connected, CountDownLatch start, long[] window, LongAdder completed) {
+        Connection connection;
+        try {
+            connection = new Connection(port);
+        } catch (IOException e) {
+            failedConnections.increment();
+            connected.countDown();
+            return;
+        }
+        connected.countDown();
+        
+        Random random = new Random(client);
+        SyntheticBooks newBooks = new SyntheticBooks(1_000_000L + client);
+        ArrayDeque<long[]> inFlight = new ArrayDeque<>();
+        try (connection) {
+            start.await();
+            while (true) {
+                long now = System.nanoTime();
+                while (inFlight.size() < pipeline && now < window[1]) {
+                    int kind = random.nextInt(100) < writes ? 3 : random.nextInt(3);
+                    sendRequest(connection, kind, random, newBooks);
+                    inFlight.add(new long[] {kind, now});
+                }
+                if (inFlight.isEmpty()) break;
+                int status = connection.readResponse();
+                long[] request = inFlight.poll();
+                long answered = System.nanoTime();
+                if (answered < window[0] || answered > window[1]) continue;
+                if (status != 200) errors.increment();
+                latencies[(int) request[0]].record(answered - request[1]);
+                all.record(answered - request[1]);
+                completed.increment();
+            }
+        } catch (IOException e) {
+            errors.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void sendRequest(Connection connection, int kind, Random random, SyntheticBooks newBooks) throws IOException {
+        SyntheticBooks.Sample book = books.get(random.nextInt(books.size()));
+        switch (KINDS[kind]) {
+            case "lookup" -> connection.send("GET", "/book?title=" + encoded(book.title)
+                    + "&author=" + encoded(book.author) + "&year=" + book.year, null);
+            case "search" -> connection.send("GET", "/books?limit=20&title=" + encoded(fragment(book.title, random)), null);
+            case "find" -> connection.send("GET", "/find?limit=20&q=" + encoded(fragment(book.author, random)), null);
+            default -> {
+                StringBuilder line = new StringBuilder();
+                appendJson(line, newBooks.next());
+                connection.send("POST", "/books", line.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+    
+    private static String fragment(String text, Random random) {
+        int start = random.nextInt(Math.max(1, text.length() - 4));
+        return text.substring(start, Math.min(text.length(), start + 5)).toLowerCase(Locale.ROOT);
+    }
+    
+    private static String encoded(String text) {
+        return URLEncoder.encode(text, StandardCharsets.UTF_8);
+    }
+    
+    // Synthetic titles, authors and categories hold no quotes or backslashes.
+    private static void appendJson(StringBuilder out, SyntheticBooks.Sample book) {
+        out.append("{\"title\":\"").append(book.title)
+           .append("\",\"author\":\"").append(book.author)
+           .append("\",\"year\":").append(book.year)
+           .append(",\"category\":\"").append(book.category)
+           .append("\",\"inStock\":").append(book.inStock).append("}\n");
+    }
+    
+    private void report(long completed) {
+        System.out.printf(Locale.ROOT, "%d connections, pipeline %d, %d s: %d requests, %.0f per second, %d errors%n",
+                          connections - failedConnections.sum(), pipeline, seconds, completed,
+                          (double) completed / seconds, errors.sum());
+        System.out.printf(Locale.ROOT, "%-8s %9s %10s %10s %10s %10s %10s%n",
+                          "", "count", "mean us", "p50 us", "p99 us", "p99.9 us", "max us");
+        for (int i = 0; i < KINDS.length; i++) {
+            printRow(KINDS[i], latencies[i]);
+        }
+        printRow("all", all);
+    }
+    
+    private static void printRow(String name, Latencies latency) {
+        if (latency.count() == 0) return;
+        System.out.printf(Locale.ROOT, "%-8s %9d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                          name, latency.count(), latency.mean() / 1000, latency.percentile(50) / 1000.0,
+                          latency.percentile(99) / 1000.0, latency.percentile(99.9) / 1000.0,
+                          latency.max() / 1000.0);
+    }
+    
+    // One kept-alive HTTP/1.1 connection. Answers are read and thrown away;
+    // the server always gives their length.
+    private static final class Connection implements AutoCloseable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final StringBuilder line = new StringBuilder();
+        private final byte[] discard = new byte[8192];
+        
+        Connection(int port) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 30_000);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+        
+        // Buffered until the next answer is read, so pipelined requests go
+        // out together.
+        void send(String method, String target, byte[] body) throws IOException {
+            StringBuilder head = new StringBuilder(method).append(' ').append(target)
+                    .append(" HTTP/1.1\r\nHost: localhost\r\n");
+            if (body != null) {
+                head.append("Content-Type: application/jsonl\r\nContent-Length: ").append(body.length).append("\r\n");
+            }
+            out.write(head.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1));
+            if (body != null) out.write(body);
+        }
+        
+        int readResponse() throws IOException {
+            out.flush();
+            String statusLine = readLine();
+            if (statusLine.length() < 12) throw new IOException("Bad status line: " + statusLine);
+            int status = Integer.parseInt(statusLine.substring(9, 12));
+            long length = 0;
+            for (String header = readLine(); !header.isEmpty(); header = readLine()) {
+                if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    length = Long.parseLong(header.substring(15).trim());
+                }
+            }
+            while (length > 0) {
+                int read = in.read(discard, 0, (int) Math.min(discard.length, length));
+                if (read < 0) throw new IOException("Connection closed mid-answer");
+                length -= read;
+            }
+            return status;
+        }
+        
+        private String readLine() throws IOException {
+            line.setLength(0);
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) throw new IOException("Connection closed");
+                if (c != '\r') line.append((char) c);
+            }
+            return line.toString();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package bookmanager.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Changes to the collection. Adding grows it, so every iteration starts over
+// from a freshly populated one of the requested size.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MutationBenchmark {
+    
+    @Param({ "1000", "100000", "1000000" })
+    public int size;
+    
+    private Workload workload;
+    
+    @Setup(Level.Iteration)
+    public void populate() {
+        workload = Workload.create();
+        workload.populate(size, 7);
+    }
+    
+    @Benchmark
+    public boolean addBookToCollection() {
+        return workload.addNext();
+    }
+    
+    @Benchmark
+    public boolean updateExistingBook() {
+        return workload.updateNext();
+    }
+}
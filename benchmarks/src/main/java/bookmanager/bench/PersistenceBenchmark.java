@@ -0,0 +1,58 @@
+package bookmanager.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Saving and loading the whole collection. The manager works in the current
+// directory, so this refuses to start where a collection is already saved.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class PersistenceBenchmark {
+    
+    @Param({ "1000", "100000", "1000000" })
+    public int size;
+    
+    private Workload workload;
+    
+    @Setup(Level.Trial)
+    public void populate() {
+        workload = Workload.create();
+        workload.requireNothingSaved();
+        workload.populate(size, 11);
+        if (!workload.save()) {
+            throw new IllegalStateException("Couldn't save the synthetic collection");
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void cleanUp() {
+        workload.deleteSaved();
+    }
+    
+    @Benchmark
+    public boolean saveMyLibrary() {
+        return workload.save();
+    }
+    
+    @Benchmark
+    public boolean loadMyLibrary() {
+        return workload.load();
+    }
+}
@@ -0,0 +1,75 @@
+package bookmanager.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Read paths over a collection that stays the same for the whole run. The
+// samples repeat, so the query cache is off and every call does the search;
+// CachedQueryBenchmark times the cache hits.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Dbookmanager.cache.maxBooks=0" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QueryBenchmark {
+    private static final int SAMPLES = 64;
+    private static final String[] CATEGORIES = { "novel", "myst", "ence", "poetry" };
+    
+    @Param({ "1000", "100000", "1000000" })
+    public int size;
+    
+    private Workload workload;
+    private String[] titles;
+    private String[] terms;
+    private int next;
+    
+    @Setup(Level.Trial)
+    public void populate() {
+        workload = Workload.create();
+        workload.populate(size, 42);
+        titles = workload.sampleTitles(SAMPLES);
+        terms = workload.sampleTerms(SAMPLES);
+    }
+    
+    private int nextSample() {
+        next = (next + 1) % SAMPLES;
+        return next;
+    }
+    
+    @Benchmark
+    public Object locateBookByTitle() {
+        return workload.locateByTitle(titles[nextSample()]);
+    }
+    
+    @Benchmark
+    public List<?> findBooks() {
+        return workload.findBooks(terms[nextSample()]);
+    }
+    
+    @Benchmark
+    public List<?> searchWithFilters() {
+        int sample = nextSample();
+        return workload.searchWithFilters(sample % 2 == 0 ? terms[sample] : null,
+                                          sample % 2 == 1 ? terms[sample] : null,
+                                          CATEGORIES[sample % CATEGORIES.length], null);
+    }
+    
+    @Benchmark
+    public List<?> getOldBooks() {
+        return workload.oldBooks();
+    }
+}
@@ -0,0 +1,64 @@
+package bookmanager.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Full scans that no index can answer, run once in a plain loop and once on
+// the fork-join pool, over growing collections. Where the parallel times
+// overtake the sequential ones is the crossover point to use as
+// bookmanager.scan.parallelThreshold on that machine. The query cache is
+// off, or every call after the first would only time a cache lookup.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Dbookmanager.cache.maxBooks=0" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ScanBenchmark {
+    
+    @Param({ "10000", "30000", "100000", "300000", "1000000" })
+    public int size;
+    
+    @Param({ "sequential", "parallel" })
+    public String scan;
+    
+    private Workload workload;
+    
+    @Setup(Level.Trial)
+    public void populate() {
+        // Read by every manager when it is created.
+        System.setProperty("bookmanager.scan.parallelThreshold",
+                           scan.equals("parallel") ? "0" : String.valueOf(Integer.MAX_VALUE));
+        workload = Workload.create();
+        workload.populate(size, 42);
+    }
+    
+    @Benchmark
+    public List<?> getOldBooks() {
+        return workload.oldBooks();
+    }
+    
+    // Two letters are too short for the substring index.
+    @Benchmark
+    public List<?> findBooksShortTerm() {
+        return workload.findBooks("ri");
+    }
+    
+    @Benchmark
+    public List<?> searchWithShortAuthor() {
+        return workload.searchWithFilters(null, "an", null, null);
+    }
+}
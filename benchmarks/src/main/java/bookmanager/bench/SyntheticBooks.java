@@ -0,0 +1,81 @@
+package bookmanager.bench;
+
+import java.util.Random;
+
+// Generates catalogue-like books: a few prolific authors and popular title
+// words account for most of the collection, categories are uneven and most
+// books are recent with a long tail of older ones. Books come as plain
+// fields, since the app's Book can't be named from this package.
+public final class SyntheticBooks {
+    private static final String[] TITLE_WORDS = {
+        "the", "of", "night", "river", "house", "war", "love", "garden", "shadow", "winter",
+        "city", "secret", "last", "empire", "stone", "silent", "journey", "children", "island", "light",
+        "queen", "letters", "storm", "road", "memory", "fire", "glass", "mountain", "dream", "forest",
+        "stranger", "harbour", "kingdom", "promise", "orchard", "lantern", "voyage", "echo", "silver", "wolf",
+        "cathedral", "meridian", "labyrinth", "almanac", "requiem", "tapestry", "zephyr", "quarry", "vesper", "juniper"
+    };
+    private static final String[] FIRST_NAMES = {
+        "Anna", "Leo", "Maria", "John", "Olga", "Peter", "Elena", "David", "Sofia", "Ivan",
+        "Clara", "Thomas", "Irina", "Samuel", "Vera", "Henry", "Nadia", "Oscar", "Lydia", "Felix"
+    };
+    private static final String[] LAST_NAMES = {
+        "Tolstoy", "Woolf", "Orwell", "Austen", "Chekhov", "Dickens", "Bronte", "Nabokov", "Eliot", "Hardy",
+        "Pushkin", "Mann", "Hesse", "Camus", "Kafka", "Zola", "Gogol", "Twain", "Wilde", "Joyce",
+        "Bulgakov", "Murakami", "Borges", "Calvino", "Eco", "Rushdie", "Morrison", "Atwood", "Ishiguro", "Mantel"
+    };
+    private static final String[] CATEGORIES = {
+        "Novel", "Fantasy", "Mystery", "History", "Science", "Poetry",
+        "Biography", "Drama", "Philosophy", "Travel", "Children", "Reference"
+    };
+    
+    private final Random random;
+    
+    public SyntheticBooks(long seed) {
+        random = new Random(seed);
+    }
+    
+    public Sample next() {
+        int words = 1 + random.nextInt(4);
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) title.append(' ');
+            String word = TITLE_WORDS[skewed(TITLE_WORDS.length)];
+            title.append(i == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+        }
+        if (random.nextInt(4) == 0) {
+            title.append(' ').append(1 + random.nextInt(400));
+        }
+        
+        String author = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " "
+                + LAST_NAMES[skewed(LAST_NAMES.length)];
+        int year = random.nextInt(100) < 85 ? 1950 + random.nextInt(75) : 1600 + random.nextInt(350);
+        String category = CATEGORIES[skewed(CATEGORIES.length)];
+        return new Sample(title.toString(), author, year, category, random.nextInt(10) != 0);
+    }
+    
+    public String category() {
+        return CATEGORIES[skewed(CATEGORIES.length)];
+    }
+    
+    // Low indexes come up far more often than high ones.
+    private int skewed(int bound) {
+        double roll = random.nextDouble();
+        return (int) (bound * roll * roll * roll);
+    }
+    
+    public static final class Sample {
+        public final String title;
+        public final String author;
+        public final int year;
+        public final String category;
+        public final boolean inStock;
+        
+        Sample(String title, String author, int year, String category, boolean inStock) {
+            this.title = title;
+            this.author = author;
+            this.year = year;
+            this.category = category;
+            this.inStock = inStock;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package bookmanager.bench;
+
+import java.util.List;
+
+// The operations the benchmarks drive, on a LibraryManager reached through
+// AppBridge.
+public interface Workload {
+    
+    // Replaces the collection with size synthetic books.
+    void populate(int size, long seed);
+    
+    // Adds one more synthetic book that isn't in the collection yet.
+    boolean addNext();
+    
+    // Moves the next book round-robin into a different category.
+    boolean updateNext();
+    
+    Object locateByTitle(String title);
+    
+    List<?> findBooks(String term);
+    
+    List<?> searchWithFilters(String title, String author, String category, Integer year);
+    
+    List<?> oldBooks();
+    
+    boolean save();
+    
+    boolean load();
+    
+    // Fails if the working directory already holds a saved collection, which
+    // save would otherwise overwrite.
+    void requireNothingSaved();
+    
+    // Deletes the files that save wrote.
+    void deleteSaved();
+    
+    // Titles of books in the collection, spread evenly over it.
+    String[] sampleTitles(int count);
+    
+    // Title and author fragments of books in the collection.
+    String[] sampleTerms(int count);
+    
+    static Workload create() {
+        return AppBridge.get().newWorkload();
+    }
+}
@@ -1,8 +1,10 @@
 import java.io.Serializable;
-import java.util.Objects;
 
 public class Book implements Serializable {
     private static final long serialVersionUID = 42L;
+    private static final String[] YEAR_TEXT = new String[3000];
+    // Books published before this year count as old.
+    public static final int OLD_BOOK_YEAR = 1950;
     
     private String bookName;
     private String writer;
@@ -10,11 +12,17 @@ public class Book implements Serializable {
     private String category;
     private boolean inStock;
     
+    // Search and dedup keys, worked out on first use and dropped by every
+    // setter. None of them are serialized.
+    private transient String titleLower;
+    private transient BookKey key;
+    private transient int hash;
+    
     public Book(String bookName, String writer, int publishDate, String category) {
         this.bookName = bookName;
-        this.writer = writer;
+        this.writer = StringPool.canonical(writer);
         this.publishDate = publishDate;
-        this.category = category;
+        this.category = StringPool.canonical(category);
         this.inStock = true;
     }
     
@@ -25,14 +33,14 @@ public class Book implements Serializable {
     public String getCategory() { return category; }
     public boolean isInStock() { return inStock; }
     
-    public void renameBook(String newName) { this.bookName = newName; } 
-    public void setWriter(String writer) { this.writer = writer; }
-    public void setPublishDate(int publishDate) { this.publishDate = publishDate; }
-    public void changeCategory(String category) { this.category = category; } 
+    public void renameBook(String newName) { this.bookName = newName; forgetKeys(); } 
+    public void setWriter(String writer) { this.writer = StringPool.canonical(writer); forgetKeys(); }
+    public void setPublishDate(int publishDate) { this.publishDate = publishDate; forgetKeys(); }
+    public void changeCategory(String category) { this.category = StringPool.canonical(category); forgetKeys(); } 
     public void setInStock(boolean inStock) { this.inStock = inStock; }
     
     public boolean isOldBook() {
-        return publishDate < 1950;
+        return publishDate < OLD_BOOK_YEAR;
     }
     
     public String getShortInfo() {
@@ -41,12 +49,46 @@ public class Book implements Serializable {
     
     public boolean matchesSearch(String searchText) {
         if (searchText == null || searchText.trim().isEmpty()) return true;
-        String searchLower = searchText.toLowerCase();
-        
-        return (bookName != null && bookName.toLowerCase().contains(searchLower)) ||
-               (writer != null && writer.toLowerCase().contains(searchLower)) ||
-               (category != null && category.toLowerCase().contains(searchLower)) ||
-               String.valueOf(publishDate).contains(searchText);
+        return matchesLowered(searchText.toLowerCase(), searchText);
+    }
+    
+    // matchesSearch for callers checking many books against one term, which
+    // lower-case it once. Allocates nothing once the title key is cached.
+    boolean matchesLowered(String searchLower, String searchText) {
+        return (bookName != null && titleLower().contains(searchLower)) ||
+               (writer != null && StringPool.lower(writer).contains(searchLower)) ||
+               (category != null && StringPool.lower(category).contains(searchLower)) ||
+               yearText(publishDate).contains(searchText);
+    }
+    
+    String titleLower() {
+        if (titleLower == null && bookName != null) {
+            titleLower = bookName.toLowerCase();
+        }
+        return titleLower;
+    }
+    
+    BookKey key() {
+        if (key == null) {
+            key = BookKey.of(bookName, writer, publishDate);
+        }
+        return key;
+    }
+    
+    private void forgetKeys() {
+        titleLower = null;
+        key = null;
+        hash = 0;
+    }
+    
+    static String yearText(int year) {
+        if (year < 0 || year >= YEAR_TEXT.length) return String.valueOf(year);
+        String text = YEAR_TEXT[year];
+        if (text == null) {
+            text = String.valueOf(year);
+            YEAR_TEXT[year] = text;
+        }
+        return text;
     }
     
     @Override
@@ -66,11 +108,17 @@ public class Book implements Serializable {
         return nameEqual && authorEqual && publishDate == other.publishDate;
     }
     
+    // Hashes the same folded characters equalsIgnoreCase compares, so books
+    // that are equal always hash alike. It is the BookKey hash, worked out
+    // without building the key.
     @Override
     public int hashCode() {
-        String nameLower = bookName != null ? bookName.toLowerCase() : "";
-        String authorLower = writer != null ? writer.toLowerCase() : "";
-        return Objects.hash(nameLower, authorLower, publishDate);
+        int h = hash;
+        if (h == 0) {
+            h = BookKey.hash(bookName, writer, publishDate);
+            hash = h;
+        }
+        return h;
     }
     
     @Override
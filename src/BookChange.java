@@ -0,0 +1,72 @@
+// One change for LibraryManager.applyChanges. The book to change is found by
+// its title, author and year, as everywhere else; nothing else about the
+// book given for an update, removal or stock change is looked at.
+// Changes are immutable.
+public final class BookChange {
+    public enum Kind { ADD, UPDATE, REMOVE, SET_IN_STOCK }
+    
+    // What became of a change in a batch.
+    public enum Outcome {
+        APPLIED,
+        // The added or changed book would equal another one.
+        DUPLICATE,
+        // The book to change isn't there, or an earlier change in the batch
+        // removed or renamed it.
+        NOT_FOUND,
+        // Would have been applied, but another change in an all-or-nothing
+        // batch failed.
+        SKIPPED
+    }
+    
+    final Kind kind;
+    final BookKey target;
+    final Book book;
+    final boolean inStock;
+    
+    BookChange(Kind kind, BookKey target, Book book, boolean inStock) {
+        this.kind = kind;
+        this.target = target;
+        this.book = book;
+        this.inStock = inStock;
+    }
+    
+    public static BookChange add(Book book) {
+        return new BookChange(Kind.ADD, null, required(book), false);
+    }
+    
+    public static BookChange update(Book current, Book changed) {
+        return new BookChange(Kind.UPDATE, BookKey.of(required(current)), required(changed), false);
+    }
+    
+    public static BookChange remove(Book book) {
+        return new BookChange(Kind.REMOVE, BookKey.of(required(book)), null, false);
+    }
+    
+    public static BookChange setInStock(Book book, boolean inStock) {
+        return new BookChange(Kind.SET_IN_STOCK, BookKey.of(required(book)), null, inStock);
+    }
+    
+    private static Book required(Book book) {
+        if (book == null) throw new IllegalArgumentException("A change needs a book");
+        return book;
+    }
+    
+    public Kind kind() {
+        return kind;
+    }
+    
+    // The book added, or the book as an update leaves it; null otherwise.
+    public Book book() {
+        return book;
+    }
+    
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case ADD -> "add " + book.getShortInfo();
+            case UPDATE -> "update " + target + " to " + book.getShortInfo();
+            case REMOVE -> "remove " + target;
+            case SET_IN_STOCK -> (inStock ? "check in " : "check out ") + target;
+        };
+    }
+}
\ No newline at end of file
@@ -0,0 +1,436 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+// Column store behind BookShelf. Instead of one Book object per row it keeps
+// years in an int column, writers and categories as dictionary ids, titles
+// packed into a byte arena and inStock in a bit set. Books are only created
+// when a row is read.
+//
+// Scans match titles on the arena bytes, lower-casing one char at a time.
+// That gives what String.toLowerCase() would for nearly every title; the
+// few it doesn't, such as titles with a dotted capital I, also keep their
+// lower-cased form in the arena, which is matched as it is.
+//
+// Rows are grouped in chunks of CHUNK_SIZE. freeze() returns a read-only copy
+// that shares every chunk; the live store copies a shared chunk before its
+// first change, so a frozen copy never sees later changes and can be read
+// without the manager's lock.
+public class BookColumns {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int MAX_PAGES = 1 << 15;
+    private static final int NO_TITLE = -1;
+    
+    private static final class Chunk {
+        final int[] titles;
+        // Lower-cased titles for the rows that need one stored, NO_TITLE
+        // for the rest; null while no row of the chunk does.
+        int[] loweredTitles;
+        final int[] writers;
+        final int[] categories;
+        final int[] years;
+        final BitSet inStock;
+        final BitSet present;
+        boolean shared;
+        
+        Chunk() {
+            titles = new int[CHUNK_SIZE];
+            writers = new int[CHUNK_SIZE];
+            categories = new int[CHUNK_SIZE];
+            years = new int[CHUNK_SIZE];
+            inStock = new BitSet(CHUNK_SIZE);
+            present = new BitSet(CHUNK_SIZE);
+        }
+        
+        Chunk(Chunk original) {
+            titles = original.titles.clone();
+            loweredTitles = original.loweredTitles == null ? null : original.loweredTitles.clone();
+            writers = original.writers.clone();
+            categories = original.categories.clone();
+            years = original.years.clone();
+            inStock = (BitSet) original.inStock.clone();
+            present = (BitSet) original.present.clone();
+        }
+    }
+    
+    private final boolean frozen;
+    private final StringDictionary writerIds;
+    private final StringDictionary categoryIds;
+    private Chunk[] chunks;
+    private int rows;
+    private String[] writerValues;
+    private String[] categoryValues;
+    private String[] writerLower;
+    private String[] categoryLower;
+    private byte[][] pages;
+    private int pageCount;
+    private int pageUsed;
+    private long titleBytes;
+    private long wastedTitleBytes;
+    
+    public BookColumns() {
+        frozen = false;
+        writerIds = new StringDictionary();
+        categoryIds = new StringDictionary();
+        refreshValues();
+        chunks = new Chunk[0];
+        pages = new byte[0][];
+        pageUsed = PAGE_SIZE;
+    }
+    
+    private BookColumns(BookColumns live) {
+        frozen = true;
+        writerIds = null;
+        categoryIds = null;
+        chunks = Arrays.copyOf(live.chunks, live.chunks.length);
+        rows = live.rows;
+        writerValues = live.writerValues;
+        categoryValues = live.categoryValues;
+        writerLower = live.writerLower;
+        categoryLower = live.categoryLower;
+        pages = live.pages;
+        pageCount = live.pageCount;
+        titleBytes = live.titleBytes;
+        wastedTitleBytes = live.wastedTitleBytes;
+    }
+    
+    public BookColumns freeze() {
+        for (Chunk chunk : chunks) {
+            if (chunk != null) chunk.shared = true;
+        }
+        return new BookColumns(this);
+    }
+    
+    public int rows() {
+        return rows;
+    }
+    
+    public int append(Book book) {
+        checkWritable();
+        int row = rows++;
+        if ((row >> CHUNK_SHIFT) == chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(4, chunks.length * 2));
+        }
+        if (chunks[row >> CHUNK_SHIFT] == null) {
+            chunks[row >> CHUNK_SHIFT] = new Chunk();
+        }
+        write(row, book);
+        return row;
+    }
+    
+    public void put(int row, Book book) {
+        checkWritable();
+        forgetTitle(row);
+        write(row, book);
+    }
+    
+    public void free(int row) {
+        checkWritable();
+        if (!isPresent(row)) return;
+        forgetTitle(row);
+        writable(row).present.clear(row & (CHUNK_SIZE - 1));
+    }
+    
+    public boolean isPresent(int row) {
+        return chunks[row >> CHUNK_SHIFT].present.get(row & (CHUNK_SIZE - 1));
+    }
+    
+    public Book get(int row) {
+        Chunk chunk = chunks[row >> CHUNK_SHIFT];
+        int at = row & (CHUNK_SIZE - 1);
+        if (!chunk.present.get(at)) return null;
+        
+        Book book = new Book(title(chunk.titles[at]), writerValues[chunk.writers[at]],
+                             chunk.years[at], categoryValues[chunk.categories[at]]);
+        book.setInStock(chunk.inStock.get(at));
+        return book;
+    }
+    
+    public Cursor cursor() {
+        return new Cursor();
+    }
+    
+    // Reads one row at a time for the query engine straight off the columns,
+    // building nothing. Each scanning thread takes its own cursor.
+    public final class Cursor implements BookFields {
+        private Chunk chunk;
+        private int at;
+        
+        public boolean moveTo(int row) {
+            chunk = chunks[row >> CHUNK_SHIFT];
+            at = row & (CHUNK_SIZE - 1);
+            return chunk.present.get(at);
+        }
+        
+        @Override
+        public int year() {
+            return chunk.years[at];
+        }
+        
+        @Override
+        public boolean inStock() {
+            return chunk.inStock.get(at);
+        }
+        
+        @Override
+        public boolean titleMatches(Criterion.Match match, String lowered) {
+            int stored = chunk.loweredTitles == null ? NO_TITLE : chunk.loweredTitles[at];
+            if (stored != NO_TITLE) {
+                return storedTitleMatches(stored, false, match, lowered);
+            }
+            return storedTitleMatches(chunk.titles[at], true, match, lowered);
+        }
+        
+        @Override
+        public int writerId() {
+            return chunk.writers[at];
+        }
+        
+        @Override
+        public String writerLower() {
+            return writerLower[chunk.writers[at]];
+        }
+        
+        @Override
+        public int categoryId() {
+            return chunk.categories[at];
+        }
+        
+        @Override
+        public String categoryLower() {
+            return categoryLower[chunk.categories[at]];
+        }
+    }
+    
+    // Compares the stored row with a key char by char, folding as it goes,
+    // so no title string is built.
+    public boolean hasKey(int row, BookKey key) {
+        Chunk chunk = chunks[row >> CHUNK_SHIFT];
+        int at = row & (CHUNK_SIZE - 1);
+        return chunk.present.get(at)
+            && chunk.years[at] == key.year()
+            && BookKey.foldsTo(writerValues[chunk.writers[at]], key.author())
+            && foldedTitleEquals(chunk.titles[at], key.title());
+    }
+    
+    public boolean titleFoldsTo(int row, String folded) {
+        Chunk chunk = chunks[row >> CHUNK_SHIFT];
+        int at = row & (CHUNK_SIZE - 1);
+        return chunk.present.get(at) && foldedTitleEquals(chunk.titles[at], folded);
+    }
+    
+    // Title bytes no longer used by any row, left behind by updates and
+    // removals until the shelf is rebuilt.
+    public long wastedTitleBytes() {
+        return wastedTitleBytes;
+    }
+    
+    public long titleBytes() {
+        return titleBytes;
+    }
+    
+    private void write(int row, Book book) {
+        Chunk chunk = writable(row);
+        int at = row & (CHUNK_SIZE - 1);
+        chunk.titles[at] = storeTitle(book.getBookName());
+        storeLoweredTitle(chunk, at, book.getBookName());
+        chunk.writers[at] = writerIds.idOf(book.getWriter());
+        chunk.categories[at] = categoryIds.idOf(book.getCategory());
+        chunk.years[at] = book.getPublishDate();
+        chunk.inStock.set(at, book.isInStock());
+        chunk.present.set(at);
+        refreshValues();
+    }
+    
+    private void refreshValues() {
+        writerValues = writerIds.values();
+        categoryValues = categoryIds.values();
+        writerLower = writerIds.lowered();
+        categoryLower = categoryIds.lowered();
+    }
+    
+    private Chunk writable(int row) {
+        Chunk chunk = chunks[row >> CHUNK_SHIFT];
+        if (chunk.shared) {
+            chunk = new Chunk(chunk);
+            chunks[row >> CHUNK_SHIFT] = chunk;
+        }
+        return chunk;
+    }
+    
+    private void checkWritable() {
+        if (frozen) throw new UnsupportedOperationException("frozen columns can't change");
+    }
+    
+    private void forgetTitle(int row) {
+        Chunk chunk = chunks[row >> CHUNK_SHIFT];
+        int at = row & (CHUNK_SIZE - 1);
+        forgetBytes(chunk.titles[at]);
+        if (chunk.loweredTitles != null) forgetBytes(chunk.loweredTitles[at]);
+    }
+    
+    private void forgetBytes(int ref) {
+        if (ref == NO_TITLE) return;
+        long length = encodedLength(ref);
+        wastedTitleBytes += length;
+        titleBytes -= length;
+    }
+    
+    private void storeLoweredTitle(Chunk chunk, int at, String title) {
+        String lowered = title == null ? null : title.toLowerCase();
+        if (lowered == null || foldsCharByChar(title, lowered)) {
+            if (chunk.loweredTitles != null) chunk.loweredTitles[at] = NO_TITLE;
+            return;
+        }
+        if (chunk.loweredTitles == null) {
+            chunk.loweredTitles = new int[CHUNK_SIZE];
+            Arrays.fill(chunk.loweredTitles, NO_TITLE);
+        }
+        chunk.loweredTitles[at] = storeTitle(lowered);
+    }
+    
+    private static boolean foldsCharByChar(String title, String lowered) {
+        if (title.length() != lowered.length()) return false;
+        for (int i = 0; i < title.length(); i++) {
+            if (Character.toLowerCase(title.charAt(i)) != lowered.charAt(i)) return false;
+        }
+        return true;
+    }
+    
+    // Titles are written as a varint header, char count times two plus one
+    // if the chars need two bytes, then one byte per char when every char
+    // fits in Latin-1 and two otherwise. Either way the String comes back
+    // exactly as it went in.
+    private int storeTitle(String title) {
+        if (title == null) return NO_TITLE;
+        
+        boolean wide = false;
+        for (int i = 0; i < title.length() && !wide; i++) {
+            wide = title.charAt(i) > 0xFF;
+        }
+        int header = title.length() * 2 + (wide ? 1 : 0);
+        int length = varintLength(header) + title.length() * (wide ? 2 : 1);
+        int ref = reserve(length);
+        byte[] page = pages[ref >>> PAGE_SHIFT];
+        int at = writeVarint(page, ref & (PAGE_SIZE - 1), header);
+        for (int i = 0; i < title.length(); i++) {
+            char c = title.charAt(i);
+            if (wide) page[at++] = (byte) (c >> 8);
+            page[at++] = (byte) c;
+        }
+        titleBytes += length;
+        return ref;
+    }
+    
+    // A title longer than a page gets a page of its own.
+    private int reserve(int length) {
+        if (pageUsed + length > PAGE_SIZE || length > PAGE_SIZE) {
+            if (pageCount == MAX_PAGES) {
+                throw new IllegalStateException("Title storage is full");
+            }
+            if (pageCount == pages.length) {
+                pages = Arrays.copyOf(pages, Math.max(4, pages.length * 2));
+            }
+            pages[pageCount++] = new byte[Math.max(PAGE_SIZE, length)];
+            pageUsed = 0;
+        }
+        int ref = (pageCount - 1) << PAGE_SHIFT | pageUsed;
+        pageUsed = length > PAGE_SIZE ? PAGE_SIZE : pageUsed + length;
+        return ref;
+    }
+    
+    private String title(int ref) {
+        if (ref == NO_TITLE) return null;
+        byte[] page = pages[ref >>> PAGE_SHIFT];
+        int header = headerAt(page, ref & (PAGE_SIZE - 1));
+        int at = (ref & (PAGE_SIZE - 1)) + varintLength(header);
+        int length = header >>> 1;
+        if ((header & 1) == 0) {
+            return new String(page, at, length, StandardCharsets.ISO_8859_1);
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++, at += 2) {
+            chars[i] = (char) ((page[at] & 0xFF) << 8 | page[at + 1] & 0xFF);
+        }
+        return new String(chars);
+    }
+    
+    // Whether the stored title, lower-cased a char at a time if fold is set,
+    // contains, starts with or equals lowered.
+    private boolean storedTitleMatches(int ref, boolean fold, Criterion.Match match, String lowered) {
+        if (ref == NO_TITLE) return false;
+        byte[] page = pages[ref >>> PAGE_SHIFT];
+        int header = headerAt(page, ref & (PAGE_SIZE - 1));
+        int start = (ref & (PAGE_SIZE - 1)) + varintLength(header);
+        int length = header >>> 1;
+        boolean wide = (header & 1) != 0;
+        int wanted = lowered.length();
+        int last = switch (match) {
+            case CONTAINS -> length - wanted;
+            case PREFIX -> length >= wanted ? 0 : -1;
+            case EQUALS -> length == wanted ? 0 : -1;
+        };
+        for (int from = 0; from <= last; from++) {
+            int i = 0;
+            while (i < wanted && charAt(page, start, wide, from + i, fold) == lowered.charAt(i)) i++;
+            if (i == wanted) return true;
+        }
+        return false;
+    }
+    
+    private static char charAt(byte[] page, int start, boolean wide, int index, boolean fold) {
+        char c = wide ? (char) ((page[start + 2 * index] & 0xFF) << 8 | page[start + 2 * index + 1] & 0xFF)
+                      : (char) (page[start + index] & 0xFF);
+        return fold ? Character.toLowerCase(c) : c;
+    }
+    
+    private boolean foldedTitleEquals(int ref, String folded) {
+        if (ref == NO_TITLE || folded == null) return ref == NO_TITLE && folded == null;
+        byte[] page = pages[ref >>> PAGE_SHIFT];
+        int header = headerAt(page, ref & (PAGE_SIZE - 1));
+        int at = (ref & (PAGE_SIZE - 1)) + varintLength(header);
+        int length = header >>> 1;
+        if (length != folded.length()) return false;
+        boolean wide = (header & 1) != 0;
+        for (int i = 0; i < length; i++, at += wide ? 2 : 1) {
+            char c = wide ? (char) ((page[at] & 0xFF) << 8 | page[at + 1] & 0xFF) : (char) (page[at] & 0xFF);
+            if (Character.toLowerCase(Character.toUpperCase(c)) != folded.charAt(i)) return false;
+        }
+        return true;
+    }
+    
+    private long encodedLength(int ref) {
+        int header = headerAt(pages[ref >>> PAGE_SHIFT], ref & (PAGE_SIZE - 1));
+        return varintLength(header) + (long) (header >>> 1) * ((header & 1) + 1);
+    }
+    
+    private static int headerAt(byte[] page, int at) {
+        int header = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = page[at++];
+            header |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return header;
+    }
+    
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) length++;
+        return length;
+    }
+    
+    private static int writeVarint(byte[] page, int at, int value) {
+        while ((value & ~0x7F) != 0) {
+            page[at++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        page[at++] = (byte) value;
+        return at;
+    }
+}
\ No newline at end of file
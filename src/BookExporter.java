@@ -0,0 +1,241 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+
+// Writes the collection out as CSV, JSON Lines or the store format. Text
+// formats are produced one book at a time from the manager's shared snapshot,
+// through one reusable encoder and buffer, so memory use doesn't grow with
+// the collection. CSV comes out in the column order BookImporter reads by
+// default and with a header, so an export can be imported again.
+public class BookExporter {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int PROGRESS_EVERY = 4096;
+    
+    public enum Format {
+        CSV, JSONL, STORE;
+        
+        public static Format of(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+    
+    public static long export(LibraryManager manager, Format format, Path file) throws IOException {
+        return export(manager, format, file, TaskProgress.NONE);
+    }
+    
+    public static long export(LibraryManager manager, Format format, Path file, TaskProgress progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            return export(manager, format, channel, progress);
+        }
+    }
+    
+    // The channel is left open, so this can write to System.out as well. The
+    // books come from the manager's shared snapshot, so no lock is held
+    // however slowly the channel drains.
+    public static long export(LibraryManager manager, Format format, WritableByteChannel out,
+                              TaskProgress progress) throws IOException {
+        return export(manager.getAllMyBooks(), format, out, progress);
+    }
+    
+    // Writes books already taken from the manager, such as its shared
+    // snapshot.
+    public static long export(List<Book> books, Format format, WritableByteChannel out) throws IOException {
+        return export(books, format, out, TaskProgress.NONE);
+    }
+    
+    private static long export(List<Book> books, Format format, WritableByteChannel out,
+                               TaskProgress progress) throws IOException {
+        if (format == Format.STORE) {
+            return exportStore(books, out, progress);
+        }
+        
+        ChannelWriter writer = new ChannelWriter(out);
+        long total = books.size();
+        long written = 0;
+        if (format == Format.CSV) {
+            writer.append("title,author,year,category,inStock\n");
+        }
+        for (Book book : books) {
+            if (format == Format.CSV) {
+                writeCsv(writer, book);
+            } else {
+                writeJson(writer, book);
+            }
+            if (++written % PROGRESS_EVERY == 0) {
+                progress.checkpoint(written, total);
+            }
+        }
+        writer.finish();
+        progress.update(total, total);
+        return written;
+    }
+    
+    // The store starts with the book count and the table of every writer and
+    // category, which the snapshot has at hand before the first book goes out.
+    private static long exportStore(List<Book> books, WritableByteChannel out,
+                                    TaskProgress progress) throws IOException {
+        OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(out), BUFFER_SIZE);
+        BookStoreFormat.write(stream, books, progress);
+        stream.flush();
+        return books.size();
+    }
+    
+    private static void writeCsv(ChannelWriter writer, Book book) throws IOException {
+        writeCsvField(writer, book.getBookName());
+        writer.append(',');
+        writeCsvField(writer, book.getWriter());
+        writer.append(',');
+        writer.append(Integer.toString(book.getPublishDate()));
+        writer.append(',');
+        writeCsvField(writer, book.getCategory());
+        writer.append(',');
+        writer.append(book.isInStock() ? "true" : "false");
+        writer.append('\n');
+    }
+    
+    private static void writeCsvField(ChannelWriter writer, String value) throws IOException {
+        if (value == null) return;
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.append(value);
+            return;
+        }
+        writer.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') writer.append('"');
+            writer.append(c);
+        }
+        writer.append('"');
+    }
+    
+    // One book as a JSON object on its own line; LibraryServer answers with
+    // the same lines.
+    static void writeJson(Appendable writer, Book book) throws IOException {
+        writer.append("{\"title\":");
+        writeJsonString(writer, book.getBookName());
+        writer.append(",\"author\":");
+        writeJsonString(writer, book.getWriter());
+        writer.append(",\"year\":");
+        writer.append(Integer.toString(book.getPublishDate()));
+        writer.append(",\"category\":");
+        writeJsonString(writer, book.getCategory());
+        writer.append(",\"inStock\":");
+        writer.append(book.isInStock() ? "true" : "false");
+        writer.append("}\n");
+    }
+    
+    static void writeJsonString(Appendable writer, String value) throws IOException {
+        if (value == null) {
+            writer.append("null");
+            return;
+        }
+        writer.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> writer.append("\\\"");
+                case '\\' -> writer.append("\\\\");
+                case '\n' -> writer.append("\\n");
+                case '\r' -> writer.append("\\r");
+                case '\t' -> writer.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        writer.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.append(c);
+                    }
+                }
+            }
+        }
+        writer.append('"');
+    }
+    
+    // Collects characters, encodes them to UTF-8 a buffer at a time and
+    // writes the bytes to the channel whenever the byte buffer fills up.
+    private static final class ChannelWriter implements Appendable {
+        private final WritableByteChannel out;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE / 4);
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        
+        ChannelWriter(WritableByteChannel out) {
+            this.out = out;
+        }
+        
+        @Override
+        public ChannelWriter append(char c) throws IOException {
+            if (!chars.hasRemaining()) encode(false);
+            chars.put(c);
+            return this;
+        }
+        
+        @Override
+        public ChannelWriter append(CharSequence text) throws IOException {
+            return append(text, 0, text.length());
+        }
+        
+        // Strings are copied straight in; CharBuffer.append would wrap them.
+        @Override
+        public ChannelWriter append(CharSequence text, int start, int end) throws IOException {
+            int at = start;
+            while (at < end) {
+                if (!chars.hasRemaining()) encode(false);
+                int upTo = Math.min(end, at + chars.remaining());
+                if (text instanceof String) {
+                    chars.put((String) text, at, upTo);
+                } else {
+                    chars.append(text, at, upTo);
+                }
+                at = upTo;
+            }
+            return this;
+        }
+        
+        void finish() throws IOException {
+            encode(true);
+            while (encoder.flush(bytes) == CoderResult.OVERFLOW) {
+                drain();
+            }
+            drain();
+        }
+        
+        // A surrogate pair split across two fills stays in the char buffer
+        // until its second half arrives.
+        private void encode(boolean endOfInput) throws IOException {
+            chars.flip();
+            while (encoder.encode(chars, bytes, endOfInput) == CoderResult.OVERFLOW) {
+                drain();
+            }
+            chars.compact();
+        }
+        
+        private void drain() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            bytes.clear();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,21 @@
+// One stored book's fields as the query engine reads them, without building
+// a Book. Writers and categories come with their dictionary id when they are
+// stored in columns and -1 otherwise, so a criterion can remember its answer
+// per id. Text is lower-cased the way String.toLowerCase() does it. Titles
+// are only matched, never handed out, so a stored title can be compared
+// where it lies instead of being built and lower-cased for every row.
+public interface BookFields {
+    int year();
+    
+    boolean inStock();
+    
+    boolean titleMatches(Criterion.Match match, String lowered);
+    
+    int writerId();
+    
+    String writerLower();
+    
+    int categoryId();
+    
+    String categoryLower();
+}
\ No newline at end of file
@@ -0,0 +1,597 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+
+// Loads a publisher catalogue into the collection. The file is read through
+// a channel in fixed-size chunks and cut into records on the calling thread;
+// records are parsed into books in batches on the common fork-join pool
+// while reading goes on. Nothing is added until the whole file has been
+// parsed, and then everything goes in as one batch, so a cancelled or failed
+// import leaves the collection as it was.
+//
+// CSV records are title,author,year,category[,inStock], or any order when the
+// first line is a header naming the columns. JSON is either an array of flat
+// objects or one object per line, keyed the same way.
+public class BookImporter {
+    private static final int CHUNK_BYTES = 1 << 20;
+    private static final int PARSE_BATCH = 8192;
+    private static final int MIN_YEAR = 1000;
+    private static final int MAX_YEAR = 2030;
+    
+    private static final int TITLE = 0;
+    private static final int AUTHOR = 1;
+    private static final int YEAR = 2;
+    private static final int CATEGORY = 3;
+    private static final int IN_STOCK = 4;
+    private static final int[] DEFAULT_COLUMNS = {TITLE, AUTHOR, YEAR, CATEGORY, IN_STOCK};
+    
+    private static final class Record {
+        final long line;
+        final String text;
+        
+        Record(long line, String text) {
+            this.line = line;
+            this.text = text;
+        }
+    }
+    
+    // A record turned into either a book or the reason it couldn't be.
+    private static final class Parsed {
+        final Record record;
+        final Book book;
+        final String problem;
+        
+        Parsed(Record record, Book book, String problem) {
+            this.record = record;
+            this.book = book;
+            this.problem = problem;
+        }
+    }
+    
+    private final LibraryManager manager;
+    private boolean json;
+    private int[] columns = DEFAULT_COLUMNS;
+    private boolean headerChecked;
+    
+    private BookImporter(LibraryManager manager) {
+        this.manager = manager;
+    }
+    
+    public static ImportReport importFile(LibraryManager manager, Path file) throws IOException {
+        return importFile(manager, file, TaskProgress.NONE);
+    }
+    
+    // Cancelling only works while the file is being read and parsed.
+    public static ImportReport importFile(LibraryManager manager, Path file, TaskProgress progress) throws IOException {
+        return new BookImporter(manager).run(file, progress);
+    }
+    
+    private ImportReport run(Path file, TaskProgress progress) throws IOException {
+        List<ForkJoinTask<List<Parsed>>> batches = new ArrayList<>();
+        try {
+            readRecords(file, batches, progress);
+        } catch (CancellationException e) {
+            batches.forEach(batch -> batch.cancel(false));
+            throw e;
+        }
+        
+        ImportReport report = new ImportReport();
+        Map<BookKey, Long> firstLines = new HashMap<>();
+        Map<Book, Record> sources = new IdentityHashMap<>();
+        List<Book> accepted = new ArrayList<>();
+        for (ForkJoinTask<List<Parsed>> batch : batches) {
+            for (Parsed parsed : join(batch)) {
+                Record record = parsed.record;
+                if (parsed.problem != null) {
+                    report.reject(record.line, parsed.problem, record.text);
+                    continue;
+                }
+                Long firstLine = firstLines.putIfAbsent(BookKey.of(parsed.book), record.line);
+                if (firstLine != null) {
+                    report.reject(record.line, "same book as line " + firstLine, record.text);
+                    continue;
+                }
+                sources.put(parsed.book, record);
+                accepted.add(parsed.book);
+            }
+        }
+        progress.checkpoint(1, 1);
+        
+        List<Book> existing = manager.addBooksToCollection(accepted);
+        for (Book book : existing) {
+            Record record = sources.get(book);
+            report.reject(record.line, "already in the collection", record.text);
+        }
+        report.setAdded(accepted.size() - existing.size());
+        return report;
+    }
+    
+    private static List<Parsed> join(ForkJoinTask<List<Parsed>> batch) throws IOException {
+        try {
+            return batch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Couldn't parse catalogue: " + e.getCause(), e);
+        }
+    }
+    
+    private void readRecords(Path file, List<ForkJoinTask<List<Parsed>>> batches, TaskProgress progress) throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_BYTES);
+        CharBuffer chars = CharBuffer.allocate(CHUNK_BYTES);
+        RecordSplitter splitter = null;
+        List<Record> pending = new ArrayList<>(PARSE_BATCH);
+        
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                endOfInput = channel.read(bytes) < 0;
+                bytes.flip();
+                decoder.decode(bytes, chars, endOfInput);
+                if (endOfInput) {
+                    decoder.flush(chars);
+                }
+                bytes.compact();
+                chars.flip();
+                
+                if (splitter == null && chars.hasRemaining()) {
+                    if (chars.get(0) == '\uFEFF') {
+                        chars.get();
+                    }
+                    splitter = startsWithJson(chars) ? new JsonSplitter() : new CsvSplitter();
+                    json = splitter instanceof JsonSplitter;
+                }
+                if (splitter != null) {
+                    while (chars.hasRemaining()) {
+                        Record record = splitter.next(chars);
+                        if (record == null) continue;
+                        pending.add(record);
+                        if (pending.size() == PARSE_BATCH) {
+                            batches.add(parseLater(pending));
+                            pending = new ArrayList<>(PARSE_BATCH);
+                        }
+                    }
+                    if (endOfInput) {
+                        Record last = splitter.finish();
+                        if (last != null) pending.add(last);
+                    }
+                }
+                chars.clear();
+                progress.checkpoint(channel.position(), size);
+            }
+        }
+        if (!pending.isEmpty()) {
+            batches.add(parseLater(pending));
+        }
+    }
+    
+    private static boolean startsWithJson(CharBuffer chars) {
+        for (int i = chars.position(); i < chars.limit(); i++) {
+            char c = chars.get(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '[' || c == '{';
+            }
+        }
+        return false;
+    }
+    
+    // The header decides how every other CSV record is read, so it is looked
+    // at here, before the batch goes off to be parsed.
+    private ForkJoinTask<List<Parsed>> parseLater(List<Record> records) {
+        if (!json && !headerChecked) {
+            headerChecked = true;
+            int[] named = headerColumns(records.get(0).text);
+            if (named != null) {
+                columns = named;
+                records = records.subList(1, records.size());
+            }
+        }
+        List<Record> batch = records;
+        return ForkJoinPool.commonPool().submit(
+                () -> batch.parallelStream().map(this::parse).collect(Collectors.toList()));
+    }
+    
+    private Parsed parse(Record record) {
+        try {
+            String[] fields = json ? jsonFields(record.text) : csvFields(record.text);
+            return new Parsed(record, toBook(fields), null);
+        } catch (IllegalArgumentException e) {
+            return new Parsed(record, null, e.getMessage());
+        }
+    }
+    
+    private static Book toBook(String[] fields) {
+        String title = trimmed(fields[TITLE]);
+        String author = trimmed(fields[AUTHOR]);
+        if (title.isEmpty() || author.isEmpty()) {
+            throw new IllegalArgumentException("title and author are required");
+        }
+        
+        int year;
+        try {
+            year = Integer.parseInt(trimmed(fields[YEAR]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("year is not a number");
+        }
+        if (year < MIN_YEAR || year > MAX_YEAR) {
+            throw new IllegalArgumentException("year must be between " + MIN_YEAR + " and " + MAX_YEAR);
+        }
+        
+        Book book = new Book(title, author, year, trimmed(fields[CATEGORY]));
+        String inStock = trimmed(fields[IN_STOCK]).toLowerCase(Locale.ROOT);
+        switch (inStock) {
+            case "", "true", "yes", "1" -> book.setInStock(true);
+            case "false", "no", "0" -> book.setInStock(false);
+            default -> throw new IllegalArgumentException("inStock must be true or false");
+        }
+        return book;
+    }
+    
+    // One JSON object read and checked the way an imported record is; the
+    // message of the exception says what is wrong with it.
+    static Book parseJson(String object) {
+        return toBook(jsonFields(object));
+    }
+    
+    // The fields of one flat JSON object by name, for callers that read
+    // more from it than a book.
+    static Map<String, String> jsonObject(String text) {
+        Map<String, String> object = new HashMap<>();
+        new JsonObjectReader(text).readObject(object::put);
+        return object;
+    }
+    
+    // The book named by such fields, checked the same way.
+    static Book toBook(Map<String, String> object) {
+        String[] fields = new String[DEFAULT_COLUMNS.length];
+        for (Map.Entry<String, String> entry : object.entrySet()) {
+            int field = fieldFor(entry.getKey());
+            if (field >= 0) fields[field] = entry.getValue();
+        }
+        return toBook(fields);
+    }
+    
+    private static String trimmed(String field) {
+        return field == null ? "" : field.trim();
+    }
+    
+    private static int fieldFor(String name) {
+        return switch (name.trim().toLowerCase(Locale.ROOT).replace("_", "").replace(" ", "")) {
+            case "title", "name", "bookname" -> TITLE;
+            case "author", "writer" -> AUTHOR;
+            case "year", "publishdate", "published" -> YEAR;
+            case "category", "genre" -> CATEGORY;
+            case "instock", "stock", "available" -> IN_STOCK;
+            default -> -1;
+        };
+    }
+    
+    // A first line that names a title column is a header; anything else is
+    // an ordinary record.
+    private static int[] headerColumns(String firstLine) {
+        List<String> header;
+        try {
+            header = splitCsv(firstLine);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        int[] named = new int[header.size()];
+        boolean hasTitle = false;
+        for (int i = 0; i < named.length; i++) {
+            named[i] = fieldFor(header.get(i));
+            hasTitle |= named[i] == TITLE;
+        }
+        return hasTitle ? named : null;
+    }
+    
+    private String[] csvFields(String text) {
+        List<String> values = splitCsv(text);
+        String[] fields = new String[DEFAULT_COLUMNS.length];
+        for (int i = 0; i < values.size() && i < columns.length; i++) {
+            if (columns[i] >= 0) {
+                fields[columns[i]] = values.get(i);
+            }
+        }
+        return fields;
+    }
+    
+    private static List<String> splitCsv(String text) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        values.add(value.toString());
+        return values;
+    }
+    
+    private static String[] jsonFields(String text) {
+        if (!text.startsWith("{")) {
+            throw new IllegalArgumentException("not a JSON object");
+        }
+        String[] fields = new String[DEFAULT_COLUMNS.length];
+        JsonObjectReader reader = new JsonObjectReader(text);
+        reader.readObject((key, value) -> {
+            int field = fieldFor(key);
+            if (field >= 0) fields[field] = value;
+        });
+        return fields;
+    }
+    
+    // Cuts the character stream into records, carrying a record that spans two
+    // chunks over to the next one.
+    private interface RecordSplitter {
+        // Consumes characters up to the end of the next record and returns it,
+        // or returns null once the buffer runs out in the middle of one.
+        Record next(CharBuffer chars);
+        
+        Record finish();
+    }
+    
+    // One record per line, except that quoted fields may hold line breaks.
+    private static final class CsvSplitter implements RecordSplitter {
+        private final StringBuilder current = new StringBuilder();
+        private boolean quoted;
+        private long line = 1;
+        private long startLine = 1;
+        
+        @Override
+        public Record next(CharBuffer chars) {
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '"') {
+                    quoted = !quoted;
+                } else if (c == '\n') {
+                    line++;
+                    if (!quoted) {
+                        Record record = take();
+                        if (record != null) return record;
+                        continue;
+                    }
+                }
+                current.append(c);
+            }
+            return null;
+        }
+        
+        @Override
+        public Record finish() {
+            return take();
+        }
+        
+        private Record take() {
+            int end = current.length();
+            if (end > 0 && current.charAt(end - 1) == '\r') end--;
+            String text = current.substring(0, end);
+            current.setLength(0);
+            long recordLine = startLine;
+            startLine = line;
+            return text.isBlank() ? null : new Record(recordLine, text);
+        }
+    }
+    
+    // Picks out every top-level object, whether they sit in an array or one
+    // per line. Between objects only whitespace and the array's brackets and
+    // commas are expected; any other text, up to the end of its line or the
+    // next object, comes out as a record of its own so it gets rejected.
+    private static final class JsonSplitter implements RecordSplitter {
+        private final StringBuilder current = new StringBuilder();
+        private final StringBuilder stray = new StringBuilder();
+        private int depth;
+        private boolean inString;
+        private boolean escaped;
+        private long line = 1;
+        private long startLine;
+        private long strayLine;
+        
+        @Override
+        public Record next(CharBuffer chars) {
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (depth == 0) {
+                    Record record = null;
+                    if (c == '{' || c == '\n') {
+                        record = takeStray();
+                    } else if (stray.length() > 0) {
+                        stray.append(c);
+                    } else if (!Character.isWhitespace(c) && "[,]".indexOf(c) < 0) {
+                        strayLine = line;
+                        stray.append(c);
+                    }
+                    if (c == '\n') line++;
+                    if (c == '{') {
+                        depth = 1;
+                        startLine = line;
+                        current.append(c);
+                    }
+                    if (record != null) return record;
+                    continue;
+                }
+                if (c == '\n') line++;
+                
+                current.append(c);
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (c == '\\') {
+                        escaped = true;
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '{') {
+                    depth++;
+                } else if (c == '}' && --depth == 0) {
+                    Record record = new Record(startLine, current.toString());
+                    current.setLength(0);
+                    return record;
+                }
+            }
+            return null;
+        }
+        
+        @Override
+        public Record finish() {
+            if (current.length() == 0) return takeStray();
+            Record record = new Record(startLine, current.toString());
+            current.setLength(0);
+            return record;
+        }
+        
+        private Record takeStray() {
+            String text = stray.toString().trim();
+            stray.setLength(0);
+            return text.isEmpty() ? null : new Record(strayLine, text);
+        }
+    }
+    
+    private interface FieldSink {
+        void accept(String key, String value);
+    }
+    
+    // Reads one flat JSON object; values may be strings, numbers, booleans or
+    // null, and come out as their text.
+    private static final class JsonObjectReader {
+        private final String text;
+        private int at;
+        
+        JsonObjectReader(String text) {
+            this.text = text;
+        }
+        
+        void readObject(FieldSink sink) {
+            expect('{');
+            skipSpace();
+            if (peek() == '}') {
+                at++;
+                return;
+            }
+            while (true) {
+                skipSpace();
+                String key = readString();
+                skipSpace();
+                expect(':');
+                skipSpace();
+                sink.accept(key, readValue());
+                skipSpace();
+                char c = next();
+                if (c == '}') return;
+                if (c != ',') throw new IllegalArgumentException("expected , or } at offset " + (at - 1));
+            }
+        }
+        
+        private String readValue() {
+            char c = peek();
+            if (c == '"') {
+                return readString();
+            }
+            if (c == '{' || c == '[') {
+                throw new IllegalArgumentException("nested values aren't supported");
+            }
+            int start = at;
+            while (at < text.length() && ",}".indexOf(text.charAt(at)) < 0
+                    && !Character.isWhitespace(text.charAt(at))) {
+                at++;
+            }
+            String literal = text.substring(start, at);
+            if (literal.isEmpty()) throw new IllegalArgumentException("missing value at offset " + start);
+            return literal.equals("null") ? null : literal;
+        }
+        
+        private String readString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') return value.toString();
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escape = next();
+                switch (escape) {
+                    case 'n' -> value.append('\n');
+                    case 't' -> value.append('\t');
+                    case 'r' -> value.append('\r');
+                    case 'b' -> value.append('\b');
+                    case 'f' -> value.append('\f');
+                    case 'u' -> {
+                        if (at + 4 > text.length()) throw new IllegalArgumentException("bad \\u escape");
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(at, at + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("bad \\u escape");
+                        }
+                        at += 4;
+                    }
+                    default -> value.append(escape);
+                }
+            }
+        }
+        
+        private void skipSpace() {
+            while (at < text.length() && Character.isWhitespace(text.charAt(at))) at++;
+        }
+        
+        private char peek() {
+            if (at >= text.length()) throw new IllegalArgumentException("unexpected end of record");
+            return text.charAt(at);
+        }
+        
+        private char next() {
+            char c = peek();
+            at++;
+            return c;
+        }
+        
+        private void expect(char wanted) {
+            if (next() != wanted) {
+                throw new IllegalArgumentException("expected " + wanted + " at offset " + (at - 1));
+            }
+        }
+    }
+}
\ No newline at end of file
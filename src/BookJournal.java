@@ -0,0 +1,369 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Append-only log of collection changes made since the last snapshot.
+// Each record is length:i32 crc32:i32 followed by the payload:
+//
+//   ADD    book
+//   UPDATE title writer year book     -- the first three identify the old book
+//   REMOVE title writer year
+//   STOCK  title writer year inStock:u8
+//   BATCH  count:varint (length:varint payload)*
+//   START  generation:i64
+//
+// where book is title writer category year inStock:u8, texts and years
+// encoded as in BookStoreFormat. A BATCH holds the payloads of the records
+// logged between beginBatch and endBatch under one checksum, so replay
+// sees all of them or none. Records are buffered until commit, which
+// appends them and, unless disabled, forces them to disk.
+//
+// Every journal starts with a START record numbering it; journals from
+// before there were numbers count as generation 1. A snapshot records the
+// last generation it includes, and replay skips those, so a crash between
+// writing a snapshot and emptying the journal doesn't apply changes twice.
+public class BookJournal implements Closeable {
+    public static final byte ADD = 1;
+    public static final byte UPDATE = 2;
+    public static final byte REMOVE = 3;
+    public static final byte STOCK = 4;
+    public static final byte BATCH = 5;
+    public static final byte START = 6;
+    private static final int START_RECORD_SIZE = 8 + 9;
+    
+    private final Path file;
+    private FileChannel channel;
+    private final ByteArrayOutputStream pending;
+    private final ByteArrayOutputStream record;
+    private final CRC32 checksum;
+    private boolean syncOnCommit;
+    private ScheduledExecutorService groupCommit;
+    private ByteArrayOutputStream batch;
+    private int batchRecords;
+    private long generation;
+    
+    public BookJournal(Path file) throws IOException {
+        this.file = file;
+        generation = generationOf(file);
+        channel = openForAppend(file);
+        pending = new ByteArrayOutputStream();
+        record = new ByteArrayOutputStream();
+        checksum = new CRC32();
+        syncOnCommit = true;
+    }
+    
+    public static final class Entry {
+        public final byte op;
+        public final BookKey target;
+        public final Book book;
+        public final boolean inStock;
+        
+        Entry(byte op, BookKey target, Book book, boolean inStock) {
+            this.op = op;
+            this.target = target;
+            this.book = book;
+            this.inStock = inStock;
+        }
+    }
+    
+    public void setSyncOnCommit(boolean syncOnCommit) {
+        this.syncOnCommit = syncOnCommit;
+    }
+    
+    // Commits whatever has been logged every windowMillis, so a crash loses at
+    // most one window of changes even if nobody calls commit.
+    public synchronized void startGroupCommit(long windowMillis) {
+        if (groupCommit != null) return;
+        groupCommit = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "book-journal-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        groupCommit.scheduleWithFixedDelay(() -> {
+            try {
+                commit();
+            } catch (IOException e) {
+                System.err.println("Couldn't commit journal: " + e.getMessage());
+            }
+        }, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    public synchronized void logAdd(Book book) throws IOException {
+        record.reset();
+        record.write(ADD);
+        writeBook(book);
+        seal();
+    }
+    
+    public synchronized void logUpdate(Book oldVersion, Book newVersion) throws IOException {
+        record.reset();
+        record.write(UPDATE);
+        writeKey(oldVersion);
+        writeBook(newVersion);
+        seal();
+    }
+    
+    public synchronized void logRemove(Book book) throws IOException {
+        record.reset();
+        record.write(REMOVE);
+        writeKey(book);
+        seal();
+    }
+    
+    public synchronized void logStock(Book book, boolean inStock) throws IOException {
+        record.reset();
+        record.write(STOCK);
+        writeKey(book);
+        record.write(inStock ? 1 : 0);
+        seal();
+    }
+    
+    // Until endBatch, records are held back from commit and then sealed
+    // together as one BATCH record. Batches don't nest.
+    public synchronized void beginBatch() {
+        if (batch != null) throw new IllegalStateException("A batch is already open");
+        batch = new ByteArrayOutputStream();
+        batchRecords = 0;
+    }
+    
+    public synchronized void endBatch() throws IOException {
+        ByteArrayOutputStream records = batch;
+        batch = null;
+        if (records == null || batchRecords == 0) return;
+        record.reset();
+        record.write(BATCH);
+        BookStoreFormat.writeVarint(record, batchRecords);
+        record.write(records.toByteArray(), 0, records.size());
+        seal();
+    }
+    
+    public synchronized void commit() throws IOException {
+        if (pending.size() == 0) return;
+        ByteBuffer bytes = ByteBuffer.wrap(pending.toByteArray());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        pending.reset();
+        if (syncOnCommit) {
+            channel.force(false);
+        }
+    }
+    
+    // 0 while the journal is empty and hasn't been started.
+    public synchronized long generation() {
+        return generation;
+    }
+    
+    public synchronized void discardPending() {
+        pending.reset();
+    }
+    
+    public synchronized long size() throws IOException {
+        return channel.size() + pending.size();
+    }
+    
+    // Everything committed so far moves to rotated and the journal starts
+    // over as the next generation; the caller folds rotated into a snapshot
+    // and then deletes it.
+    public synchronized void rotateTo(Path rotated) throws IOException {
+        commit();
+        channel.close();
+        Files.move(file, rotated, StandardCopyOption.REPLACE_EXISTING);
+        channel = openForAppend(file);
+        start(generation + 1);
+    }
+    
+    // Empties the journal and starts it over as the given generation.
+    public synchronized void restart(long generation) throws IOException {
+        pending.reset();
+        channel.truncate(0);
+        start(generation);
+    }
+    
+    private void start(long generation) throws IOException {
+        this.generation = generation;
+        record.reset();
+        record.write(START);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            record.write((int) (generation >>> shift));
+        }
+        seal();
+        commit();
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        if (groupCommit != null) {
+            groupCommit.shutdown();
+            groupCommit = null;
+        }
+        try {
+            commit();
+        } finally {
+            channel.close();
+        }
+    }
+    
+    // Reads every intact record, unless the journal is of generation
+    // included or older, which is skipped whole. A torn or corrupt tail,
+    // which is what a crash in the middle of an append leaves behind, is
+    // cut off.
+    public static List<Entry> replay(Path file, long included) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.exists(file)) return entries;
+        
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (generationOf(in) <= included) return entries;
+        CRC32 crc = new CRC32();
+        while (in.remaining() >= 8) {
+            int start = in.position();
+            int length = in.getInt();
+            int expected = in.getInt();
+            if (length <= 0 || length > in.remaining()) {
+                in.position(start);
+                break;
+            }
+            crc.reset();
+            crc.update(in.array(), in.position(), length);
+            if ((int) crc.getValue() != expected) {
+                in.position(start);
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.wrap(in.array(), in.position(), length).slice();
+            in.position(in.position() + length);
+            try {
+                readEntries(payload, entries);
+            } catch (RuntimeException e) {
+                in.position(start);
+                break;
+            }
+        }
+        
+        if (in.position() < in.limit()) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(in.position());
+            }
+        }
+        return entries;
+    }
+    
+    // The generation of the journal in file, 0 if there is none.
+    public static long generationOf(Path file) throws IOException {
+        if (!Files.exists(file)) return 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            return generationOf(ByteBuffer.wrap(in.readNBytes(START_RECORD_SIZE)));
+        }
+    }
+    
+    private static long generationOf(ByteBuffer in) {
+        if (!in.hasRemaining()) return 0;
+        if (in.remaining() < START_RECORD_SIZE || in.getInt(0) != START_RECORD_SIZE - 8 || in.get(8) != START) return 1;
+        CRC32 crc = new CRC32();
+        crc.update(in.array(), 8, START_RECORD_SIZE - 8);
+        return (int) crc.getValue() == in.getInt(4) ? in.getLong(9) : 1;
+    }
+    
+    // A batch is only added once every record in it has been read.
+    private static void readEntries(ByteBuffer in, List<Entry> entries) {
+        if (in.get(in.position()) == START) return;
+        if (in.get(in.position()) != BATCH) {
+            entries.add(readEntry(in));
+            return;
+        }
+        in.get();
+        int count = BookStoreFormat.readVarint(in);
+        List<Entry> batched = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int length = BookStoreFormat.readVarint(in);
+            ByteBuffer payload = in.slice();
+            payload.limit(length);
+            batched.add(readEntry(payload));
+            in.position(in.position() + length);
+        }
+        entries.addAll(batched);
+    }
+    
+    private static Entry readEntry(ByteBuffer in) {
+        byte op = in.get();
+        switch (op) {
+            case ADD:
+                return new Entry(op, null, readBook(in), false);
+            case UPDATE:
+                return new Entry(op, readKey(in), readBook(in), false);
+            case REMOVE:
+                return new Entry(op, readKey(in), null, false);
+            case STOCK:
+                return new Entry(op, readKey(in), null, in.get() != 0);
+            default:
+                throw new IllegalStateException("Unknown journal op " + op);
+        }
+    }
+    
+    private void writeKey(Book book) throws IOException {
+        BookStoreFormat.writeText(record, book.getBookName());
+        BookStoreFormat.writeText(record, book.getWriter());
+        BookStoreFormat.writeVarint(record, BookStoreFormat.zigzag(book.getPublishDate()));
+    }
+    
+    private void writeBook(Book book) throws IOException {
+        BookStoreFormat.writeText(record, book.getBookName());
+        BookStoreFormat.writeText(record, book.getWriter());
+        BookStoreFormat.writeText(record, book.getCategory());
+        BookStoreFormat.writeVarint(record, BookStoreFormat.zigzag(book.getPublishDate()));
+        record.write(book.isInStock() ? 1 : 0);
+    }
+    
+    private static BookKey readKey(ByteBuffer in) {
+        String title = BookStoreFormat.readText(in);
+        String writer = BookStoreFormat.readText(in);
+        return BookKey.of(title, writer, BookStoreFormat.unzigzag(BookStoreFormat.readVarint(in)));
+    }
+    
+    private static Book readBook(ByteBuffer in) {
+        String title = BookStoreFormat.readText(in);
+        String writer = BookStoreFormat.readText(in);
+        String category = BookStoreFormat.readText(in);
+        Book book = new Book(title, writer, BookStoreFormat.unzigzag(BookStoreFormat.readVarint(in)), category);
+        book.setInStock(in.get() != 0);
+        return book;
+    }
+    
+    private void seal() throws IOException {
+        byte[] payload = record.toByteArray();
+        if (batch != null) {
+            BookStoreFormat.writeVarint(batch, payload.length);
+            batch.write(payload, 0, payload.length);
+            batchRecords++;
+            return;
+        }
+        checksum.reset();
+        checksum.update(payload);
+        writeInt(payload.length);
+        writeInt((int) checksum.getValue());
+        pending.write(payload, 0, payload.length);
+    }
+    
+    private void writeInt(int value) {
+        pending.write(value >>> 24);
+        pending.write(value >>> 16);
+        pending.write(value >>> 8);
+        pending.write(value);
+    }
+    
+    private static FileChannel openForAppend(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+}
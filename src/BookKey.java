@@ -0,0 +1,101 @@
+import java.util.Objects;
+
+public final class BookKey {
+    private final String title;
+    private final String author;
+    private final int year;
+    private final int hash;
+    
+    private BookKey(String title, String author, int year) {
+        this.title = title;
+        this.author = author;
+        this.year = year;
+        this.hash = Objects.hash(title, author, year);
+    }
+    
+    // Cached on the book until one of its setters runs.
+    public static BookKey of(Book book) {
+        return book.key();
+    }
+    
+    public static BookKey of(String title, String author, int year) {
+        return new BookKey(fold(title), fold(author), year);
+    }
+    
+    // Same per-character folding String.equalsIgnoreCase uses, so two keys are
+    // equal exactly when Book.equals would say the books are.
+    static String fold(String text) {
+        if (text == null) return null;
+        StringBuilder folded = null;
+        for (int i = 0; i < text.length(); i++) {
+            char original = text.charAt(i);
+            char lowered = Character.toLowerCase(Character.toUpperCase(original));
+            if (folded == null && lowered != original) {
+                folded = new StringBuilder(text.length());
+                folded.append(text, 0, i);
+            }
+            if (folded != null) folded.append(lowered);
+        }
+        return folded == null ? text : folded.toString();
+    }
+    
+    // The hash a key of these fields would have, without folding copies.
+    static int hash(String title, String author, int year) {
+        return (31 * (31 * (31 + foldedHash(title)) + foldedHash(author))) + year;
+    }
+    
+    private static int foldedHash(String text) {
+        if (text == null) return 0;
+        int h = 0;
+        for (int i = 0; i < text.length(); i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(text.charAt(i)));
+        }
+        return h;
+    }
+    
+    // Whether the book has this key, compared without folding copies.
+    boolean matches(Book book) {
+        return year == book.getPublishDate() && foldsTo(book.getBookName(), title)
+            && foldsTo(book.getWriter(), author);
+    }
+    
+    static boolean foldsTo(String text, String folded) {
+        if (text == null || folded == null) return text == folded;
+        if (text.length() != folded.length()) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.toLowerCase(Character.toUpperCase(text.charAt(i))) != folded.charAt(i)) return false;
+        }
+        return true;
+    }
+    
+    String title() {
+        return title;
+    }
+    
+    String author() {
+        return author;
+    }
+    
+    int year() {
+        return year;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof BookKey)) return false;
+        BookKey other = (BookKey) obj;
+        return year == other.year && hash == other.hash &&
+               Objects.equals(title, other.title) && Objects.equals(author, other.author);
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+    
+    @Override
+    public String toString() {
+        return title + " / " + author + " / " + year;
+    }
+}
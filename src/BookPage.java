@@ -0,0 +1,80 @@
+import java.util.List;
+
+// One page of books from LibraryManager.page, in collection order, and the
+// cursor for the page after it.
+public final class BookPage {
+    private final Cursor cursor;
+    private final List<Book> books;
+    private final Cursor next;
+    
+    BookPage(Cursor cursor, List<Book> books, Cursor next) {
+        this.cursor = cursor;
+        this.books = books;
+        this.next = next;
+    }
+    
+    public List<Book> books() {
+        return books;
+    }
+    
+    // The cursor this page was read from; reading it again gives the same
+    // page if nothing has changed.
+    public Cursor cursor() {
+        return cursor;
+    }
+    
+    // Null on the last page.
+    public Cursor next() {
+        return next;
+    }
+    
+    public boolean hasNext() {
+        return next != null;
+    }
+    
+    // Position of the first book on this page among all matches, from 1.
+    public long firstNumber() {
+        return cursor.skipped + 1;
+    }
+    
+    // Where a page starts: the slot of its first match, so a deep page is
+    // read from there instead of counting matches again from the start.
+    // Slots only change when the collection is renumbered by a load or a
+    // compaction; a cursor from before that resumes after the last book it
+    // had seen, or by count if that book is gone. Cursors are immutable.
+    public static final class Cursor {
+        final Criterion criterion;
+        final int pageSize;
+        final long generation;
+        final int slot;
+        final long skipped;
+        final BookKey after;
+        
+        Cursor(Criterion criterion, int pageSize, long generation, int slot, long skipped, BookKey after) {
+            this.criterion = criterion;
+            this.pageSize = pageSize;
+            this.generation = generation;
+            this.slot = slot;
+            this.skipped = skipped;
+            this.after = after;
+        }
+        
+        public static Cursor first(Criterion criterion, int pageSize) {
+            if (pageSize <= 0) throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+            return new Cursor(criterion, pageSize, -1, 0, 0, null);
+        }
+        
+        public Criterion criterion() {
+            return criterion;
+        }
+        
+        public int pageSize() {
+            return pageSize;
+        }
+        
+        @Override
+        public String toString() {
+            return criterion + " from " + (skipped + 1) + " by " + pageSize;
+        }
+    }
+}
\ No newline at end of file
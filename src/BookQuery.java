@@ -0,0 +1,188 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+// What LibraryManager.query should return: the books matching a criterion,
+// optionally sorted, and the page of them between offset and offset + limit.
+// Queries are immutable; every setter returns a changed copy.
+//
+//   BookQuery.where(Criterion.yearBetween(1900, 1950)
+//                            .and(Criterion.inStock(true))
+//                            .and(Criterion.categoryIs("Fantasy")))
+//            .sortBy(BookQuery.Sort.TITLE, false)
+//            .limit(50)
+public class BookQuery {
+    public enum Sort {
+        TITLE(Comparator.comparing(Book::getBookName, Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER))),
+        AUTHOR(Comparator.comparing(Book::getWriter, Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER))),
+        YEAR(Comparator.comparingInt(Book::getPublishDate)),
+        CATEGORY(Comparator.comparing(Book::getCategory, Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER)));
+        
+        final Comparator<Book> order;
+        
+        Sort(Comparator<Book> order) {
+            this.order = order;
+        }
+    }
+    
+    private final Criterion criterion;
+    private final Sort sort;
+    private final boolean descending;
+    private final int offset;
+    private final int limit;
+    
+    private BookQuery(Criterion criterion, Sort sort, boolean descending, int offset, int limit) {
+        this.criterion = criterion;
+        this.sort = sort;
+        this.descending = descending;
+        this.offset = offset;
+        this.limit = limit;
+    }
+    
+    public static BookQuery where(Criterion criterion) {
+        return new BookQuery(criterion, null, false, 0, Integer.MAX_VALUE);
+    }
+    
+    public static BookQuery all() {
+        return where(Criterion.any());
+    }
+    
+    // Books that compare equal keep their collection order.
+    public BookQuery sortBy(Sort sort, boolean descending) {
+        return new BookQuery(criterion, sort, descending, offset, limit);
+    }
+    
+    public BookQuery offset(int offset) {
+        if (offset < 0) throw new IllegalArgumentException("Negative offset " + offset);
+        return new BookQuery(criterion, sort, descending, offset, limit);
+    }
+    
+    public BookQuery limit(int limit) {
+        if (limit < 0) throw new IllegalArgumentException("Negative limit " + limit);
+        return new BookQuery(criterion, sort, descending, offset, limit);
+    }
+    
+    public Criterion criterion() {
+        return criterion;
+    }
+    
+    public Sort sort() {
+        return sort;
+    }
+    
+    public boolean isDescending() {
+        return descending;
+    }
+    
+    public int offset() {
+        return offset;
+    }
+    
+    public int limit() {
+        return limit;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof BookQuery)) return false;
+        BookQuery other = (BookQuery) obj;
+        return criterion.equals(other.criterion) && sort == other.sort && descending == other.descending
+            && offset == other.offset && limit == other.limit;
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(criterion, sort, descending, offset, limit);
+    }
+    
+    @Override
+    public String toString() {
+        return criterion + (sort == null ? "" : " sorted by " + sort + (descending ? " desc" : ""))
+            + (offset > 0 ? " from " + offset : "") + (limit < Integer.MAX_VALUE ? " limit " + limit : "");
+    }
+    
+    Page newPage() {
+        return new Page();
+    }
+    
+    // Takes the matches of one run in collection order and keeps only what
+    // the page needs. Unsorted, it is full once offset + limit books have
+    // come in and the scan can stop there. Sorted with a limit, it keeps the
+    // best offset + limit books seen so far in a heap.
+    final class Page implements Consumer<Book> {
+        private final long wanted = (long) offset + limit;
+        private final Comparator<Book> order;
+        private final Comparator<Ranked> rankedOrder;
+        private final List<Book> kept = new ArrayList<>();
+        private final PriorityQueue<Ranked> best;
+        private long seen;
+        
+        Page() {
+            if (sort == null) {
+                order = null;
+                rankedOrder = null;
+                best = null;
+            } else {
+                order = descending ? sort.order.reversed() : sort.order;
+                rankedOrder = Comparator.<Ranked, Book>comparing(r -> r.book, order).thenComparingLong(r -> r.position);
+                best = wanted < Integer.MAX_VALUE ? new PriorityQueue<>(rankedOrder.reversed()) : null;
+            }
+        }
+        
+        @Override
+        public void accept(Book book) {
+            long position = seen++;
+            if (order == null) {
+                if (position >= offset && position < wanted) kept.add(book);
+                return;
+            }
+            if (best == null) {
+                kept.add(book);
+                return;
+            }
+            Ranked ranked = new Ranked(book, position);
+            if (best.size() < wanted) {
+                best.add(ranked);
+            } else if (!best.isEmpty() && rankedOrder.compare(ranked, best.peek()) < 0) {
+                best.poll();
+                best.add(ranked);
+            }
+        }
+        
+        boolean isFull() {
+            return order == null && seen >= wanted;
+        }
+        
+        List<Book> books() {
+            if (order == null) return kept;
+            
+            List<Book> sorted;
+            if (best == null) {
+                kept.sort(order);
+                sorted = kept;
+            } else {
+                List<Ranked> ranked = new ArrayList<>(best);
+                ranked.sort(rankedOrder);
+                sorted = new ArrayList<>(ranked.size());
+                for (Ranked each : ranked) {
+                    sorted.add(each.book);
+                }
+            }
+            if (offset >= sorted.size()) return new ArrayList<>();
+            return new ArrayList<>(sorted.subList(offset, (int) Math.min(sorted.size(), wanted)));
+        }
+    }
+    
+    private static final class Ranked {
+        final Book book;
+        final long position;
+        
+        Ranked(Book book, long position) {
+            this.book = book;
+            this.position = position;
+        }
+    }
+}
\ No newline at end of file
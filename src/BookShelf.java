@@ -0,0 +1,271 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Books live in numbered slots so indexes can point at a stable position.
+// Removing a book leaves a hole instead of shifting everything after it;
+// slot order is always the collection order.
+//
+// A shelf can start from a read-only base list, such as a mapped store.
+// The base is never copied: replaced and removed base slots are recorded on
+// the side and new books are appended after it, into BookColumns.
+public class BookShelf implements Iterable<Book> {
+    private static final int MIN_HOLES_BEFORE_COMPACT = 1024;
+    private static final long MIN_WASTE_BEFORE_COMPACT = 1L << 20;
+    
+    private final List<Book> base;
+    private final BitSet removedFromBase;
+    private final Map<Integer, Book> replacedInBase;
+    private final BookColumns columns;
+    private int liveCount;
+    
+    public BookShelf() {
+        this(Collections.emptyList());
+    }
+    
+    public BookShelf(List<Book> base) {
+        this.base = base;
+        removedFromBase = new BitSet();
+        replacedInBase = new HashMap<>();
+        columns = new BookColumns();
+        liveCount = base.size();
+    }
+    
+    private BookShelf(BookShelf live) {
+        base = live.base;
+        removedFromBase = (BitSet) live.removedFromBase.clone();
+        replacedInBase = new HashMap<>(live.replacedInBase);
+        columns = live.columns.freeze();
+        liveCount = live.liveCount;
+    }
+    
+    // The base list itself when nothing has changed since the shelf was
+    // created from it, so callers can share it instead of copying.
+    public List<Book> untouchedBase() {
+        boolean untouched = !base.isEmpty() && columns.rows() == 0
+                            && removedFromBase.isEmpty() && replacedInBase.isEmpty();
+        return untouched ? base : null;
+    }
+    
+    // An unchangeable list of the books as they are now, for sharing with
+    // readers outside the lock. It reads a frozen copy of the shelf, so books
+    // are still only built when asked for; the only extra cost is an int per
+    // book for skipping holes, if there are any.
+    public List<Book> snapshot() {
+        List<Book> untouched = untouchedBase();
+        if (untouched != null) return untouched;
+        
+        int[] liveSlots = null;
+        if (liveCount < capacity()) {
+            liveSlots = new int[liveCount];
+            int next = 0;
+            for (int slot = 0; slot < capacity(); slot++) {
+                if (isLive(slot)) liveSlots[next++] = slot;
+            }
+        }
+        return new ShelfList(new BookShelf(this), liveSlots);
+    }
+    
+    public int append(Book book) {
+        int row = columns.append(book);
+        liveCount++;
+        return base.size() + row;
+    }
+    
+    public Book get(int slot) {
+        if (slot >= base.size()) {
+            return columns.get(slot - base.size());
+        }
+        if (removedFromBase.get(slot)) {
+            return null;
+        }
+        Book replaced = replacedInBase.get(slot);
+        return replaced != null ? replaced : base.get(slot);
+    }
+    
+    public void put(int slot, Book book) {
+        if (slot >= base.size()) {
+            columns.put(slot - base.size(), book);
+        } else {
+            replacedInBase.put(slot, book);
+        }
+    }
+    
+    public Book free(int slot) {
+        Book removed = get(slot);
+        if (removed == null) return null;
+        if (slot >= base.size()) {
+            columns.free(slot - base.size());
+        } else {
+            removedFromBase.set(slot);
+            replacedInBase.remove(slot);
+        }
+        liveCount--;
+        return removed;
+    }
+    
+    public int size() {
+        return liveCount;
+    }
+    
+    public int capacity() {
+        return base.size() + columns.rows();
+    }
+    
+    public Cursor cursor() {
+        return new Cursor();
+    }
+    
+    // Reads slots for the query engine; books appended after the base are
+    // read from their columns without being built. Not thread-safe, so each
+    // scanning thread takes its own.
+    public final class Cursor implements BookFields {
+        private final BookColumns.Cursor row = columns.cursor();
+        private Book book;
+        
+        public boolean moveTo(int slot) {
+            if (slot >= base.size()) {
+                book = null;
+                return row.moveTo(slot - base.size());
+            }
+            book = get(slot);
+            return book != null;
+        }
+        
+        @Override
+        public int year() {
+            return book != null ? book.getPublishDate() : row.year();
+        }
+        
+        @Override
+        public boolean inStock() {
+            return book != null ? book.isInStock() : row.inStock();
+        }
+        
+        @Override
+        public boolean titleMatches(Criterion.Match match, String lowered) {
+            return book != null ? match.test(book.titleLower(), lowered) : row.titleMatches(match, lowered);
+        }
+        
+        @Override
+        public int writerId() {
+            return book != null ? -1 : row.writerId();
+        }
+        
+        @Override
+        public String writerLower() {
+            return book != null ? StringPool.lower(book.getWriter()) : row.writerLower();
+        }
+        
+        @Override
+        public int categoryId() {
+            return book != null ? -1 : row.categoryId();
+        }
+        
+        @Override
+        public String categoryLower() {
+            return book != null ? StringPool.lower(book.getCategory()) : row.categoryLower();
+        }
+    }
+    
+    // Whether the book in a slot has the key; like matches, appended books
+    // are compared on their columns.
+    public boolean hasKey(int slot, BookKey key) {
+        if (slot >= base.size()) {
+            return columns.hasKey(slot - base.size(), key);
+        }
+        Book book = get(slot);
+        return book != null && key.matches(book);
+    }
+    
+    public boolean titleFoldsTo(int slot, String folded) {
+        if (slot >= base.size()) {
+            return columns.titleFoldsTo(slot - base.size(), folded);
+        }
+        Book book = get(slot);
+        return book != null && BookKey.foldsTo(book.getBookName(), folded);
+    }
+    
+    public boolean needsCompaction() {
+        int holes = capacity() - liveCount;
+        long waste = columns.wastedTitleBytes();
+        return holes > MIN_HOLES_BEFORE_COMPACT && holes > liveCount
+            || waste > MIN_WASTE_BEFORE_COMPACT && waste > columns.titleBytes();
+    }
+    
+    private boolean isLive(int slot) {
+        return slot >= base.size() ? columns.isPresent(slot - base.size()) : !removedFromBase.get(slot);
+    }
+    
+    public List<Book> toList() {
+        List<Book> books = new ArrayList<>(liveCount);
+        for (Book book : this) {
+            books.add(book);
+        }
+        return books;
+    }
+    
+    public Stream<Book> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+    
+    @Override
+    public Iterator<Book> iterator() {
+        return new Iterator<>() {
+            private int slot;
+            private Book next = advance();
+            
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+            
+            @Override
+            public Book next() {
+                if (next == null) throw new NoSuchElementException();
+                Book book = next;
+                next = advance();
+                return book;
+            }
+            
+            private Book advance() {
+                while (slot < capacity()) {
+                    Book book = get(slot++);
+                    if (book != null) return book;
+                }
+                return null;
+            }
+        };
+    }
+    
+    private static final class ShelfList extends AbstractList<Book> implements RandomAccess {
+        private final BookShelf frozen;
+        private final int[] liveSlots;
+        
+        ShelfList(BookShelf frozen, int[] liveSlots) {
+            this.frozen = frozen;
+            this.liveSlots = liveSlots;
+        }
+        
+        @Override
+        public Book get(int index) {
+            Objects.checkIndex(index, frozen.liveCount);
+            return frozen.get(liveSlots == null ? index : liveSlots[index]);
+        }
+        
+        @Override
+        public int size() {
+            return frozen.liveCount;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,277 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Binary layout of books_collection.store:
+//
+//   "BKST" version:u8 journalGeneration:i64 count:varint
+//   strings:varint { length:varint utf8-bytes }   -- writers and categories
+//   count x { title:text writer:varint-id category:varint-id year:zigzag-varint }
+//   inStock bits, one per book, low bit first
+//
+// A text is varint(byteLength + 1) followed by UTF-8 bytes, 0 meaning null.
+// String id 0 is null as well, so real strings are numbered from 1.
+// journalGeneration is the last BookJournal generation the books include;
+// version 1 files, which don't have it, include none.
+public final class BookStoreFormat {
+    public static final int VERSION = 4;
+    private static final int UNJOURNALED_VERSION = 1;
+    private static final byte[] MAGIC = {'B', 'K', 'S', 'T'};
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xACED;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int PROGRESS_EVERY = 4096;
+    
+    private BookStoreFormat() {
+    }
+    
+    public static void write(Path file, List<Book> books) throws IOException {
+        write(file, books, TaskProgress.NONE);
+    }
+    
+    public static void write(Path file, List<Book> books, TaskProgress progress) throws IOException {
+        write(file, books, 0, progress);
+    }
+    
+    public static void write(Path file, List<Book> books, long journalGeneration, TaskProgress progress) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE)) {
+                write(out, books, journalGeneration, progress);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+    
+    public static void write(OutputStream out, List<Book> books, TaskProgress progress) throws IOException {
+        write(out, books, 0, progress);
+    }
+    
+    public static void write(OutputStream out, List<Book> books, long journalGeneration,
+                             TaskProgress progress) throws IOException {
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (Book book : books) {
+            intern(book.getWriter(), stringIds, strings);
+            intern(book.getCategory(), stringIds, strings);
+        }
+        
+        out.write(MAGIC);
+        out.write(VERSION);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (journalGeneration >>> shift));
+        }
+        writeVarint(out, books.size());
+        writeVarint(out, strings.size());
+        for (String value : strings) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+        
+        int written = 0;
+        for (Book book : books) {
+            writeText(out, book.getBookName());
+            writeVarint(out, idOf(book.getWriter(), stringIds));
+            writeVarint(out, idOf(book.getCategory(), stringIds));
+            writeVarint(out, zigzag(book.getPublishDate()));
+            if (++written % PROGRESS_EVERY == 0) {
+                progress.checkpoint(written, books.size());
+            }
+        }
+        
+        int bits = 0;
+        int filled = 0;
+        for (Book book : books) {
+            if (book.isInStock()) bits |= 1 << filled;
+            if (++filled == 8) {
+                out.write(bits);
+                bits = 0;
+                filled = 0;
+            }
+        }
+        if (filled > 0) out.write(bits);
+    }
+    
+    // Mapped stores, versions 2 and 3, are not read here but mapped, see
+    // MappedBookStore.
+    public static List<Book> read(Path file) throws IOException {
+        return read(file, TaskProgress.NONE);
+    }
+    
+    public static List<Book> read(Path file, TaskProgress progress) throws IOException {
+        if (isLegacy(file)) {
+            return readLegacy(file);
+        }
+        int version = versionOf(file);
+        if (version == MappedBookStore.VERSION || version == MappedBookStore.LINK_VERSION) {
+            return MappedBookStore.open(file);
+        }
+        return read(ByteBuffer.wrap(Files.readAllBytes(file)), progress);
+    }
+    
+    public static List<Book> read(ByteBuffer in, TaskProgress progress) throws IOException {
+        try {
+            readHeader(in);
+            int count = readVarint(in);
+            String[] strings = new String[readVarint(in) + 1];
+            for (int id = 1; id < strings.length; id++) {
+                strings[id] = StringPool.canonical(readString(in, readVarint(in)));
+            }
+            
+            List<Book> books = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String title = readText(in);
+                String writer = strings[readVarint(in)];
+                String category = strings[readVarint(in)];
+                int year = unzigzag(readVarint(in));
+                books.add(new Book(title, writer, year, category));
+                if ((i + 1) % PROGRESS_EVERY == 0) {
+                    progress.checkpoint(i + 1, count);
+                }
+            }
+            
+            for (int i = 0; i < count; i += 8) {
+                int bits = in.get() & 0xFF;
+                for (int j = 0; j < 8 && i + j < count; j++) {
+                    books.get(i + j).setInStock((bits & (1 << j)) != 0);
+                }
+            }
+            return books;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt collection file: " + e, e);
+        }
+    }
+    
+    // The journal generation a store file includes, 0 if it has none.
+    public static long journalGenerationOf(Path file) throws IOException {
+        int version = versionOf(file);
+        if (version == MappedBookStore.LINK_VERSION) {
+            return MappedBookStore.journalGenerationOf(file);
+        }
+        if (version != VERSION) return 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            ByteBuffer header = ByteBuffer.wrap(in.readNBytes(MAGIC.length + 9));
+            return header.getLong(MAGIC.length + 1);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt collection file: header is cut short", e);
+        }
+    }
+    
+    public static int versionOf(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] header = in.readNBytes(MAGIC.length + 1);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (header.length <= i || header[i] != MAGIC[i]) return -1;
+            }
+            return header.length > MAGIC.length ? header[MAGIC.length] & 0xFF : -1;
+        }
+    }
+    
+    public static boolean isLegacy(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            int first = in.read();
+            int second = in.read();
+            return first >= 0 && second >= 0 && ((first << 8) | second) == JAVA_SERIALIZATION_MAGIC;
+        }
+    }
+    
+    // Files written before the binary format existed. They are only ever
+    // read, and only the classes a saved collection can contain are let in.
+    @SuppressWarnings("unchecked")
+    private static List<Book> readLegacy(Path file) throws IOException {
+        try (ObjectInputStream objIn = new ObjectInputStream(Files.newInputStream(file))) {
+            objIn.setObjectInputFilter(ObjectInputFilter.Config.createFilter(
+                "java.util.ArrayList;Book;java.lang.Object;maxdepth=5;!*"));
+            return new ArrayList<>((List<Book>) objIn.readObject());
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unreadable legacy collection: " + e.getMessage(), e);
+        }
+    }
+    
+    static void readHeader(ByteBuffer in) throws IOException {
+        for (byte expected : MAGIC) {
+            if (in.get() != expected) {
+                throw new IOException("Not a book collection file");
+            }
+        }
+        int version = in.get() & 0xFF;
+        if (version == VERSION) {
+            in.getLong();
+        } else if (version != UNJOURNALED_VERSION) {
+            throw new IOException("Unsupported collection file version " + version);
+        }
+    }
+    
+    private static void intern(String value, Map<String, Integer> ids, List<String> strings) {
+        if (value != null && !ids.containsKey(value)) {
+            strings.add(value);
+            ids.put(value, strings.size());
+        }
+    }
+    
+    private static int idOf(String value, Map<String, Integer> ids) {
+        return value == null ? 0 : ids.get(value);
+    }
+    
+    static void writeText(OutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + 1);
+        out.write(bytes);
+    }
+    
+    static String readText(ByteBuffer in) {
+        int length = readVarint(in);
+        return length == 0 ? null : readString(in, length - 1);
+    }
+    
+    private static String readString(ByteBuffer in, int length) {
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+    
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+    
+    static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+    
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+    
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
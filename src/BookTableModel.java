@@ -0,0 +1,80 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Table model that reads cells straight from a list of books, normally the
+// manager's immutable snapshot. Nothing is copied per row; a refresh swaps
+// the list and fires a single change event. Years come from Book's shared
+// year texts, so rendering a cell allocates nothing.
+public class BookTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private final String[] columns;
+    private final boolean stockCheckboxes;
+    private List<Book> books;
+    
+    public BookTableModel(String[] columns) {
+        this(columns, true);
+    }
+    
+    // Without stock checkboxes the last column shows true or false as text.
+    public BookTableModel(String[] columns, boolean stockCheckboxes) {
+        this.columns = columns;
+        this.stockCheckboxes = stockCheckboxes;
+        this.books = Collections.emptyList();
+    }
+    
+    public void setBooks(List<Book> books) {
+        this.books = books;
+        fireTableDataChanged();
+    }
+    
+    // Used while results are still streaming in; only the new rows are
+    // announced to the table.
+    public void appendBooks(List<Book> more) {
+        if (more.isEmpty()) return;
+        if (!(books instanceof ArrayList)) {
+            books = new ArrayList<>(books);
+        }
+        int first = books.size();
+        books.addAll(more);
+        fireTableRowsInserted(first, books.size() - 1);
+    }
+    
+    public Book getBookAt(int row) {
+        return books.get(row);
+    }
+    
+    @Override
+    public int getRowCount() {
+        return books.size();
+    }
+    
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+    
+    @Override
+    public String getColumnName(int column) {
+        return columns[column];
+    }
+    
+    @Override
+    public Class<?> getColumnClass(int column) {
+        if (column == 4) return stockCheckboxes ? Boolean.class : Object.class;
+        return String.class;
+    }
+    
+    @Override
+    public Object getValueAt(int row, int column) {
+        Book book = books.get(row);
+        switch (column) {
+            case 0: return book.getBookName();
+            case 1: return book.fetchWriter();
+            case 2: return Book.yearText(book.getPublishDate());
+            case 3: return book.getCategory();
+            default: return book.isInStock();
+        }
+    }
+}
@@ -1,12 +1,25 @@
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.SortedMap;
 
 public class ConsoleInterface {
     private LibraryManager manager;
     private Scanner inputReader;
+    private static final int PAGE_SIZE = 20;
     
     public ConsoleInterface() {
-        manager = new LibraryManager();
+        this(new LibraryManager());
+    }
+    
+    public ConsoleInterface(LibraryManager manager) {
+        this.manager = manager;
         inputReader = new Scanner(System.in);
     }
     
@@ -15,17 +28,20 @@ public class ConsoleInterface {
         
         while (true) {
             showOptions();
-            int selection = getNumberInput("Choose action: ");
+            String selection = getTextInput("Choose action: ");
             
-            switch (selection) {
-                case 1 -> createBook();
-                case 2 -> modifyBook();
-                case 3 -> displayAll();
-                case 4 -> findBook();
-                case 5 -> storeCollection();
-                case 6 -> loadCollection();
-                case 7 -> advancedSearch();
-                case 0 -> {
+            switch (selection.toLowerCase()) {
+                case "1" -> createBook();
+                case "2" -> modifyBook();
+                case "3" -> displayAll();
+                case "4" -> findBook();
+                case "5" -> storeCollection();
+                case "6" -> loadCollection();
+                case "7" -> advancedSearch();
+                case "8" -> exportCollection();
+                case "9" -> showDecades();
+                case "10", "stats" -> showStats();
+                case "0" -> {
                     System.out.println("Goodbye!");
                     return;
                 }
@@ -43,6 +59,9 @@ public class ConsoleInterface {
         System.out.println("5. Save collection");
         System.out.println("6. Load collection");
         System.out.println("7. Advanced search");
+        System.out.println("8. Export collection");
+        System.out.println("9. Books per decade");
+        System.out.println("10. Statistics (or type stats)");
         System.out.println("0. Exit");
     }
     
@@ -77,7 +96,7 @@ public class ConsoleInterface {
         System.out.println("\n--- Modify Book ---");
         String title = getTextInput("Enter book title to modify: ");
         
-        Book existing = manager.findBookByName(title);
+        Book existing = chooseBook(manager.findBooksByName(title));
         if (existing == null) {
             System.out.println("Book not found!");
             return;
@@ -123,13 +142,35 @@ public class ConsoleInterface {
     
     private void displayAll() {
         System.out.println("\n--- Book Collection ---");
-        List<Book> books = manager.getFullCollection();
+        browse(BookPage.Cursor.first(Criterion.any(), PAGE_SIZE), "Collection is empty.");
+    }
+    
+    // Shows a listing a page at a time. Only the current page is read; the
+    // cursors of the pages already seen are kept for going back.
+    private void browse(BookPage.Cursor first, String whenEmpty) {
+        Deque<BookPage.Cursor> earlier = new ArrayDeque<>();
+        BookPage page = manager.page(first);
+        if (page.books().isEmpty()) {
+            System.out.println(whenEmpty);
+            return;
+        }
         
-        if (books.isEmpty()) {
-            System.out.println("Collection is empty.");
-        } else {
-            for (int i = 0; i < books.size(); i++) {
-                System.out.println((i + 1) + ". " + books.get(i));
+        while (true) {
+            long number = page.firstNumber();
+            for (Book book : page.books()) {
+                System.out.println(number++ + ". " + book);
+            }
+            if (!page.hasNext() && earlier.isEmpty()) return;
+            
+            String choice = getTextInput((page.hasNext() ? "[n]ext, " : "")
+                                         + (earlier.isEmpty() ? "" : "[p]revious, ") + "[q]uit: ");
+            if (choice.equalsIgnoreCase("n") && page.hasNext()) {
+                earlier.push(page.cursor());
+                page = manager.page(page.next());
+            } else if (choice.equalsIgnoreCase("p") && !earlier.isEmpty()) {
+                page = manager.page(earlier.pop());
+            } else if (choice.equalsIgnoreCase("q") || choice.isEmpty()) {
+                return;
             }
         }
     }
@@ -138,47 +179,86 @@ public class ConsoleInterface {
         System.out.println("\n--- Find Book ---");
         String title = getTextInput("Enter book title: ");
         
-        Book found = manager.findBookByName(title);
-        if (found != null) {
-            System.out.println("Found: " + found);
+        List<Book> found = manager.findBooksByName(title);
+        if (found.size() == 1) {
+            System.out.println("Found: " + found.get(0));
+        } else if (found.size() > 1) {
+            System.out.println("Found " + found.size() + " books with this title:");
+            printNumbered(found);
         } else {
             System.out.println("Book not found.");
         }
     }
     
+    private Book chooseBook(List<Book> candidates) {
+        if (candidates.size() <= 1) {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
+        
+        System.out.println("Several books share this title:");
+        printNumbered(candidates);
+        int choice = getNumberInput("Which one (0 to cancel): ");
+        if (choice < 1 || choice > candidates.size()) {
+            return null;
+        }
+        return candidates.get(choice - 1);
+    }
+    
+    private void printNumbered(List<Book> books) {
+        for (int i = 0; i < books.size(); i++) {
+            System.out.println((i + 1) + ". " + books.get(i));
+        }
+    }
+    
     private void advancedSearch() {
         System.out.println("\n--- Advanced Search ---");
         
         String title = getTextInput("Title (skip if any): ");
         String author = getTextInput("Author (skip if any): ");
         String genre = getTextInput("Category (skip if any): ");
-        String yearInput = getTextInput("Year (skip if any): ");
+        String fromInput = getTextInput("Year from (skip if any): ");
+        String toInput = getTextInput("Year to (skip if any): ");
         
-        Integer year = null;
-        if (!yearInput.isEmpty()) {
-            try {
-                year = Integer.parseInt(yearInput);
-            } catch (NumberFormatException e) {
-                System.out.println("Invalid year format!");
-                return;
-            }
+        Integer fromYear;
+        Integer toYear;
+        try {
+            fromYear = fromInput.isEmpty() ? null : Integer.parseInt(fromInput);
+            toYear = toInput.isEmpty() ? null : Integer.parseInt(toInput);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid year format!");
+            return;
         }
         
-        List<Book> results = manager.filterBooks(
+        Criterion filters = LibraryManager.filtersOf(
             title.isEmpty() ? null : title,
             author.isEmpty() ? null : author,
             genre.isEmpty() ? null : genre,
-            year
+            fromYear,
+            toYear
         );
+        browse(BookPage.Cursor.first(filters, PAGE_SIZE), "No books found.");
+    }
+    
+    private void showDecades() {
+        System.out.println("\n--- Books per Decade ---");
         
-        if (results.isEmpty()) {
-            System.out.println("No books found.");
-        } else {
-            System.out.println("Found " + results.size() + " books:");
-            for (int i = 0; i < results.size(); i++) {
-                System.out.println((i + 1) + ". " + results.get(i));
-            }
+        SortedMap<Integer, Integer> decades = manager.countBooksByDecade();
+        if (decades.isEmpty()) {
+            System.out.println("No books in collection.");
+            return;
+        }
+        for (Map.Entry<Integer, Integer> decade : decades.entrySet()) {
+            System.out.println(decade.getKey() + "s: " + decade.getValue());
         }
+        System.out.println("Before " + Book.OLD_BOOK_YEAR + ": "
+            + manager.countBooksPublishedBetween(Integer.MIN_VALUE, Book.OLD_BOOK_YEAR - 1));
+    }
+    
+    private void showStats() {
+        System.out.println("\n--- Statistics ---");
+        System.out.print(manager.metrics().report());
+        System.out.println("Query cache: " + manager.queryCache());
+        System.out.println("String pool: " + StringPool.stats());
     }
     
     private void storeCollection() {
@@ -197,6 +277,39 @@ public class ConsoleInterface {
         }
     }
     
+    private void exportCollection() {
+        System.out.println("\n--- Export Collection ---");
+        
+        BookExporter.Format format;
+        try {
+            format = BookExporter.Format.of(getTextInput("Format (csv, jsonl, store): "));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown format!");
+            return;
+        }
+        String target = getTextInput("File (- to print here): ");
+        
+        try {
+            if (target.isEmpty() || target.equals("-")) {
+                exportToStandardOutput(manager, format);
+            } else {
+                long written = BookExporter.export(manager, format, Paths.get(target));
+                System.out.println("Exported " + written + " books to " + target);
+            }
+        } catch (IOException | InvalidPathException e) {
+            System.out.println("Export failed: " + e.getMessage());
+        }
+    }
+    
+    // Also used by LibraryApp -export, where nothing else goes to stdout and
+    // the export can be piped straight into another program.
+    static long exportToStandardOutput(LibraryManager manager, BookExporter.Format format) throws IOException {
+        System.out.flush();
+        long written = BookExporter.export(manager, format, Channels.newChannel(System.out), TaskProgress.NONE);
+        System.out.flush();
+        return written;
+    }
+    
     private String getTextInput(String prompt) {
         System.out.print(prompt);
         return inputReader.nextLine().trim();
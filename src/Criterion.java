@@ -0,0 +1,490 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+// A condition on books for LibraryManager.query. Criteria are built from the
+// static factories and combined with and, or and not. Text matches ignore
+// case the way searchWithFilters always has; an active text criterion never
+// matches a missing value.
+//
+// Besides testing stored rows, a criterion can ask SearchIndex which slots
+// might match, so the manager only scans the whole collection when no part
+// of the query is indexed. Equal criteria select the same books, which is
+// what lets QueryCache key results by query.
+public abstract class Criterion {
+    private static final int INTERSECT_RATIO = 8;
+    private static final Criterion ANY = new Criterion() {
+        @Override
+        Predicate<BookFields> newTest() {
+            return row -> true;
+        }
+        
+        @Override
+        public String toString() {
+            return "any";
+        }
+    };
+    
+    Criterion() {
+    }
+    
+    public static Criterion any() {
+        return ANY;
+    }
+    
+    public static Criterion titleContains(String part) {
+        return new Text(Field.TITLE, Match.CONTAINS, part);
+    }
+    
+    public static Criterion titleStartsWith(String prefix) {
+        return new Text(Field.TITLE, Match.PREFIX, prefix);
+    }
+    
+    public static Criterion titleIs(String title) {
+        return new Text(Field.TITLE, Match.EQUALS, title);
+    }
+    
+    public static Criterion authorContains(String part) {
+        return new Text(Field.AUTHOR, Match.CONTAINS, part);
+    }
+    
+    public static Criterion authorStartsWith(String prefix) {
+        return new Text(Field.AUTHOR, Match.PREFIX, prefix);
+    }
+    
+    public static Criterion authorIs(String author) {
+        return new Text(Field.AUTHOR, Match.EQUALS, author);
+    }
+    
+    public static Criterion categoryContains(String part) {
+        return new Text(Field.CATEGORY, Match.CONTAINS, part);
+    }
+    
+    public static Criterion categoryIs(String category) {
+        return new Text(Field.CATEGORY, Match.EQUALS, category);
+    }
+    
+    public static Criterion yearIs(int year) {
+        return new YearRange(year, year);
+    }
+    
+    // Both ends are included.
+    public static Criterion yearBetween(int minYear, int maxYear) {
+        return new YearRange(minYear, maxYear);
+    }
+    
+    public static Criterion publishedBefore(int year) {
+        return new YearRange(Integer.MIN_VALUE, year - 1);
+    }
+    
+    public static Criterion inStock(boolean inStock) {
+        return new Stock(inStock);
+    }
+    
+    public static Criterion allOf(Criterion... parts) {
+        return combine(true, parts);
+    }
+    
+    public static Criterion anyOf(Criterion... parts) {
+        return combine(false, parts);
+    }
+    
+    public static Criterion not(Criterion criterion) {
+        return new Not(criterion);
+    }
+    
+    public Criterion and(Criterion other) {
+        return allOf(this, other);
+    }
+    
+    public Criterion or(Criterion other) {
+        return anyOf(this, other);
+    }
+    
+    public Criterion negate() {
+        return not(this);
+    }
+    
+    public boolean test(Book book) {
+        return newTest().test(new BookView(book));
+    }
+    
+    // A fresh test for one scanning thread; tests may remember answers and
+    // are never shared.
+    abstract Predicate<BookFields> newTest();
+    
+    // Upper bound on the slots the indexes would offer as candidates, or
+    // Integer.MAX_VALUE if they can't narrow this criterion down.
+    int estimate(SearchIndex index) {
+        return Integer.MAX_VALUE;
+    }
+    
+    // Sorted slots that may match, or null if the indexes can't narrow this
+    // criterion down and the caller has to scan.
+    int[] candidates(SearchIndex index) {
+        return null;
+    }
+    
+    // Nested ANDs and ORs are flattened and any() drops out of them.
+    private static Criterion combine(boolean all, Criterion[] parts) {
+        List<Criterion> flat = new ArrayList<>();
+        for (Criterion part : parts) {
+            if (part == ANY) {
+                if (all) continue;
+                return ANY;
+            }
+            if (part instanceof Group && ((Group) part).all == all) {
+                flat.addAll(Arrays.asList(((Group) part).parts));
+            } else {
+                flat.add(part);
+            }
+        }
+        if (flat.isEmpty()) return ANY;
+        if (flat.size() == 1) return flat.get(0);
+        return new Group(all, flat.toArray(new Criterion[0]));
+    }
+    
+    enum Field { TITLE, AUTHOR, CATEGORY }
+    
+    enum Match {
+        CONTAINS, PREFIX, EQUALS;
+        
+        boolean test(String value, String lowered) {
+            if (value == null) return false;
+            return switch (this) {
+                case CONTAINS -> value.contains(lowered);
+                case PREFIX -> value.startsWith(lowered);
+                case EQUALS -> value.equals(lowered);
+            };
+        }
+    }
+    
+    private static final class Text extends Criterion {
+        final Field field;
+        final Match match;
+        final String lowered;
+        
+        Text(Field field, Match match, String text) {
+            if (text == null) throw new IllegalArgumentException("No text to match " + field + " against");
+            this.field = field;
+            this.match = match;
+            this.lowered = text.toLowerCase();
+        }
+        
+        boolean matches(String value) {
+            return match.test(value, lowered);
+        }
+        
+        @Override
+        Predicate<BookFields> newTest() {
+            if (field == Field.TITLE) {
+                return row -> row.titleMatches(match, lowered);
+            }
+            return new RememberingTest(this);
+        }
+        
+        @Override
+        int estimate(SearchIndex index) {
+            return switch (field) {
+                case TITLE -> index.titleEstimate(lowered);
+                case AUTHOR -> index.writerEstimate(lowered);
+                case CATEGORY -> index.categoryEstimate(this::matches);
+            };
+        }
+        
+        @Override
+        int[] candidates(SearchIndex index) {
+            return switch (field) {
+                case TITLE -> index.titleCandidates(lowered);
+                case AUTHOR -> index.writerCandidates(lowered);
+                case CATEGORY -> index.categoryCandidates(this::matches);
+            };
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Text)) return false;
+            Text other = (Text) obj;
+            return field == other.field && match == other.match && lowered.equals(other.lowered);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(field, match, lowered);
+        }
+        
+        @Override
+        public String toString() {
+            return field.name().toLowerCase() + " " + match.name().toLowerCase() + " \"" + lowered + "\"";
+        }
+    }
+    
+    // Writers and categories repeat, so the answer is remembered per
+    // dictionary id and a scan mostly compares ints.
+    private static final class RememberingTest implements Predicate<BookFields> {
+        private static final byte UNKNOWN = 0;
+        private static final byte MATCH = 1;
+        private static final byte MISMATCH = 2;
+        
+        private final Text text;
+        private final boolean author;
+        private byte[] answers = new byte[0];
+        
+        RememberingTest(Text text) {
+            this.text = text;
+            this.author = text.field == Field.AUTHOR;
+        }
+        
+        @Override
+        public boolean test(BookFields row) {
+            int id = author ? row.writerId() : row.categoryId();
+            if (id < 0) {
+                return text.matches(author ? row.writerLower() : row.categoryLower());
+            }
+            if (id >= answers.length) {
+                answers = Arrays.copyOf(answers, Math.max(id + 1, answers.length * 2));
+            }
+            if (answers[id] == UNKNOWN) {
+                answers[id] = text.matches(author ? row.writerLower() : row.categoryLower()) ? MATCH : MISMATCH;
+            }
+            return answers[id] == MATCH;
+        }
+    }
+    
+    private static final class YearRange extends Criterion {
+        final int minYear;
+        final int maxYear;
+        
+        YearRange(int minYear, int maxYear) {
+            this.minYear = minYear;
+            this.maxYear = maxYear;
+        }
+        
+        @Override
+        Predicate<BookFields> newTest() {
+            return row -> row.year() >= minYear && row.year() <= maxYear;
+        }
+        
+        @Override
+        int estimate(SearchIndex index) {
+            return index.yearCount(minYear, maxYear);
+        }
+        
+        @Override
+        int[] candidates(SearchIndex index) {
+            return index.yearCandidates(minYear, maxYear);
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof YearRange)) return false;
+            YearRange other = (YearRange) obj;
+            return minYear == other.minYear && maxYear == other.maxYear;
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31 * minYear + maxYear;
+        }
+        
+        @Override
+        public String toString() {
+            return "year " + minYear + ".." + maxYear;
+        }
+    }
+    
+    private static final class Stock extends Criterion {
+        final boolean inStock;
+        
+        Stock(boolean inStock) {
+            this.inStock = inStock;
+        }
+        
+        @Override
+        Predicate<BookFields> newTest() {
+            return row -> row.inStock() == inStock;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Stock && ((Stock) obj).inStock == inStock;
+        }
+        
+        @Override
+        public int hashCode() {
+            return Boolean.hashCode(inStock);
+        }
+        
+        @Override
+        public String toString() {
+            return inStock ? "in stock" : "checked out";
+        }
+    }
+    
+    private static final class Not extends Criterion {
+        final Criterion negated;
+        
+        Not(Criterion negated) {
+            this.negated = negated;
+        }
+        
+        @Override
+        Predicate<BookFields> newTest() {
+            return negated.newTest().negate();
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Not && ((Not) obj).negated.equals(negated);
+        }
+        
+        @Override
+        public int hashCode() {
+            return ~negated.hashCode();
+        }
+        
+        @Override
+        public String toString() {
+            return "not (" + negated + ")";
+        }
+    }
+    
+    private static final class Group extends Criterion {
+        final boolean all;
+        final Criterion[] parts;
+        
+        Group(boolean all, Criterion[] parts) {
+            this.all = all;
+            this.parts = parts;
+        }
+        
+        @Override
+        Predicate<BookFields> newTest() {
+            List<Predicate<BookFields>> each = new ArrayList<>(parts.length);
+            for (Criterion part : parts) {
+                each.add(part.newTest());
+            }
+            return row -> {
+                for (Predicate<BookFields> test : each) {
+                    if (test.test(row) != all) return !all;
+                }
+                return all;
+            };
+        }
+        
+        // An AND needs only one indexed part; an OR needs every part indexed.
+        @Override
+        int estimate(SearchIndex index) {
+            long total = 0;
+            int smallest = Integer.MAX_VALUE;
+            for (Criterion part : parts) {
+                int estimate = part.estimate(index);
+                smallest = Math.min(smallest, estimate);
+                total += estimate;
+            }
+            if (all) return smallest;
+            return total >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) total;
+        }
+        
+        // Parts are narrowed from the most selective one; an AND part whose
+        // estimate dwarfs the candidates left is skipped, since testing it on
+        // each candidate is cheaper than materializing its postings.
+        @Override
+        int[] candidates(SearchIndex index) {
+            if (!all) {
+                int[][] each = new int[parts.length][];
+                for (int i = 0; i < parts.length; i++) {
+                    each[i] = parts[i].candidates(index);
+                    if (each[i] == null) return null;
+                }
+                return SearchIndex.union(each);
+            }
+            
+            int[] estimates = new int[parts.length];
+            Integer[] order = new Integer[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                estimates[i] = parts[i].estimate(index);
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(estimates[a], estimates[b]));
+            int[] result = parts[order[0]].candidates(index);
+            for (int step = 1; step < order.length && result != null && result.length > 0; step++) {
+                int estimate = estimates[order[step]];
+                if (estimate == Integer.MAX_VALUE || estimate > (long) result.length * INTERSECT_RATIO) break;
+                int[] narrower = parts[order[step]].candidates(index);
+                if (narrower == null) break;
+                result = SearchIndex.intersect(result, narrower);
+            }
+            return result;
+        }
+        
+        // Parts in the same order; (a and b) and (b and a) count as different.
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Group)) return false;
+            Group other = (Group) obj;
+            return all == other.all && Arrays.equals(parts, other.parts);
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31 * Boolean.hashCode(all) + Arrays.hashCode(parts);
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder("(");
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) text.append(all ? " and " : " or ");
+                text.append(parts[i]);
+            }
+            return text.append(')').toString();
+        }
+    }
+    
+    // A Book read through BookFields, for testing books that aren't stored.
+    private static final class BookView implements BookFields {
+        private final Book book;
+        
+        BookView(Book book) {
+            this.book = book;
+        }
+        
+        @Override
+        public int year() {
+            return book.getPublishDate();
+        }
+        
+        @Override
+        public boolean inStock() {
+            return book.isInStock();
+        }
+        
+        @Override
+        public boolean titleMatches(Match match, String lowered) {
+            return match.test(book.titleLower(), lowered);
+        }
+        
+        @Override
+        public int writerId() {
+            return -1;
+        }
+        
+        @Override
+        public String writerLower() {
+            return StringPool.lower(book.getWriter());
+        }
+        
+        @Override
+        public int categoryId() {
+            return -1;
+        }
+        
+        @Override
+        public String categoryLower() {
+            return StringPool.lower(book.getCategory());
+        }
+    }
+}
\ No newline at end of file
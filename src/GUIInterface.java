@@ -1,13 +1,21 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.JTableHeader;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 
 public class GUIInterface extends JFrame {
     private LibraryManager bookKeeper;
     private JTable booksDisplay;
-    private DefaultTableModel tableData;
+    private BookTableModel tableData;
     
     private final Color BG_COLOR = new Color(255, 240, 245);
     private final Color PANEL_COLOR = new Color(255, 182, 193);
@@ -19,8 +27,30 @@ public class GUIInterface extends JFrame {
     private JTextField titleField, authorField, yearField, categoryField;
     private JCheckBox availableCheck;
     
+    private ProgressWorker<Boolean, Void> backupTask;
+    private boolean backupRequestedAgain;
+    private ProgressWorker<Boolean, Void> restoreTask;
+    private ProgressWorker<Void, List<Book>> searchTask;
+    private ProgressWorker<ImportReport, Void> importTask;
+    private ProgressWorker<String, Void> decadeTask;
+    
+    private static final int FILTER_DELAY_MILLIS = 30;
+    private JTextField filterField;
+    private Timer filterTimer;
+    private LiveFilter liveFilter;
+    private SwingWorker<List<Book>, Void> filterTask;
+    
+    private static final int TABLE_PAGE = 200;
+    private BookPage.Cursor moreRows;
+    private SwingWorker<BookPage, Void> pageTask;
+    
     public GUIInterface() {
-        bookKeeper = new LibraryManager();
+        this(new LibraryManager());
+    }
+    
+    public GUIInterface(LibraryManager bookKeeper) {
+        this.bookKeeper = bookKeeper;
+        this.liveFilter = new LiveFilter(bookKeeper);
         initializeWindow();
     }
     
@@ -49,12 +79,16 @@ public class GUIInterface extends JFrame {
         JMenu fileMenu = createMenu("File", Color.WHITE);
         JMenuItem saveOption = new JMenuItem("Backup Data");
         JMenuItem loadOption = new JMenuItem("Restore Data");
+        JMenuItem importOption = new JMenuItem("Import Catalogue...");
         
         saveOption.addActionListener(e -> backupData());
         loadOption.addActionListener(e -> restoreData());
+        importOption.addActionListener(e -> importCatalogue());
         
         fileMenu.add(saveOption);
         fileMenu.add(loadOption);
+        fileMenu.addSeparator();
+        fileMenu.add(importOption);
         
         JMenu booksMenu = createMenu("Books", Color.WHITE);
         JMenuItem addOption = new JMenuItem("New Book Entry");
@@ -83,7 +117,12 @@ public class GUIInterface extends JFrame {
         contentPanel.setBackground(BG_COLOR);
         contentPanel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
         
-        contentPanel.add(createButtonPanel(), BorderLayout.NORTH);
+        JPanel topPanel = new JPanel(new BorderLayout());
+        topPanel.setBackground(BG_COLOR);
+        topPanel.add(createButtonPanel(), BorderLayout.NORTH);
+        topPanel.add(createFilterPanel(), BorderLayout.SOUTH);
+        
+        contentPanel.add(topPanel, BorderLayout.NORTH);
         contentPanel.add(createTablePanel(), BorderLayout.CENTER);
         contentPanel.add(createStatusPanel(), BorderLayout.SOUTH);
         
@@ -106,6 +145,52 @@ public class GUIInterface extends JFrame {
         return buttonPanel;
     }
     
+    private JPanel createFilterPanel() {
+        JPanel filterPanel = new JPanel(new BorderLayout(8, 0));
+        filterPanel.setBackground(BG_COLOR);
+        filterPanel.setBorder(BorderFactory.createEmptyBorder(5, 10, 0, 10));
+        
+        filterField = createStyledTextField();
+        filterTimer = new Timer(FILTER_DELAY_MILLIS, e -> applyFilter());
+        filterTimer.setRepeats(false);
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { filterTimer.restart(); }
+            public void removeUpdate(DocumentEvent e) { filterTimer.restart(); }
+            public void changedUpdate(DocumentEvent e) { filterTimer.restart(); }
+        });
+        
+        filterPanel.add(createFormLabel("Quick filter:"), BorderLayout.WEST);
+        filterPanel.add(filterField, BorderLayout.CENTER);
+        return filterPanel;
+    }
+    
+    // Runs off the EDT; a newer keystroke cancels a query still in flight so
+    // only the latest text ever reaches the table.
+    private void applyFilter() {
+        if (filterTask != null && !filterTask.isDone()) {
+            filterTask.cancel(false);
+        }
+        String query = filterField.getText();
+        SwingWorker<List<Book>, Void> task = new SwingWorker<>() {
+            @Override
+            protected List<Book> doInBackground() {
+                return liveFilter.apply(query);
+            }
+            
+            @Override
+            protected void done() {
+                if (isCancelled()) return;
+                try {
+                    showBooks(get());
+                } catch (Exception ex) {
+                    showMessage("Filter error: " + ex.getMessage(), "Filter Problem");
+                }
+            }
+        };
+        filterTask = task;
+        task.execute();
+    }
+    
     private JButton createActionButton(String label, Color baseColor) {
         JButton button = new JButton(label);
         button.setBackground(baseColor);
@@ -144,22 +229,18 @@ public class GUIInterface extends JFrame {
     
     private JScrollPane createTablePanel() {
         String[] columns = {"Book Title", "Author", "Year", "Category", "Status"};
-        tableData = new DefaultTableModel(columns, 0) {
-            @Override
-            public Class<?> getColumnClass(int column) {
-                return column == 4 ? Boolean.class : String.class;
-            }
-            
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tableData = new BookTableModel(columns);
         
         booksDisplay = new JTable(tableData);
         customizeTable();
         
         JScrollPane scrollPane = new JScrollPane(booksDisplay);
+        JScrollBar rowScroll = scrollPane.getVerticalScrollBar();
+        rowScroll.addAdjustmentListener(e -> {
+            if (rowScroll.getValue() + 2 * rowScroll.getVisibleAmount() >= rowScroll.getMaximum()) {
+                loadMoreRows();
+            }
+        });
         scrollPane.setBorder(BorderFactory.createTitledBorder(
             BorderFactory.createLineBorder(PANEL_COLOR, 2), 
             "Book Collection (" + bookKeeper.countBooks() + " books) "
@@ -197,24 +278,55 @@ public class GUIInterface extends JFrame {
     }
     
     private void refreshBookList() {
-        tableData.setRowCount(0);
-        List<Book> currentBooks = bookKeeper.getAllMyBooks();
-        
-        for (Book book : currentBooks) {
-            tableData.addRow(new Object[]{
-                book.getBookName(),
-                book.fetchWriter(),
-                String.valueOf(book.getPublishDate()),
-                book.getCategory(),
-                book.isInStock()
-            });
+        if (filterField != null && !filterField.getText().trim().isEmpty()) {
+            applyFilter();
+            return;
         }
-        
-        updateTableTitle(currentBooks.size());
+        BookPage first = bookKeeper.page(BookPage.Cursor.first(Criterion.any(), TABLE_PAGE));
+        tableData.setBooks(first.books());
+        moreRows = first.next();
+        updateTableTitle(bookKeeper.countBooks());
         repaint();
     }
     
-    private void updateTableTitle(int bookCount) {
+    private void showBooks(List<Book> shownBooks) {
+        moreRows = null;
+        tableData.setBooks(shownBooks);
+        updateTableTitle(shownBooks.size());
+        repaint();
+    }
+    
+    // The collection is listed a page at a time; the next page is read off
+    // the EDT once the table is scrolled within a screen of its last row.
+    // A refresh in the meantime drops the page, since its cursor is stale.
+    private void loadMoreRows() {
+        BookPage.Cursor cursor = moreRows;
+        if (cursor == null || (pageTask != null && !pageTask.isDone())) return;
+        SwingWorker<BookPage, Void> task = new SwingWorker<>() {
+            @Override
+            protected BookPage doInBackground() {
+                return bookKeeper.page(cursor);
+            }
+            
+            @Override
+            protected void done() {
+                if (moreRows != cursor) return;
+                try {
+                    BookPage page = get();
+                    tableData.appendBooks(page.books());
+                    moreRows = page.next();
+                } catch (Exception ex) {
+                    moreRows = null;
+                    showMessage("Couldn't load more books: " + ex.getMessage(), "List Problem");
+                }
+            }
+        };
+        pageTask = task;
+        task.execute();
+    }
+    
+    private void updateTableTitle(int shownCount) {
+        int bookCount = bookKeeper.countBooks();
         Component centerComponent = getContentPane().getComponent(0);
         if (centerComponent instanceof JPanel) {
             JPanel mainPanel = (JPanel) centerComponent;
@@ -223,7 +335,9 @@ public class GUIInterface extends JFrame {
                 JScrollPane scrollPane = (JScrollPane) tableComponent;
                 scrollPane.setBorder(BorderFactory.createTitledBorder(
                     BorderFactory.createLineBorder(PANEL_COLOR, 2), 
-                    " My Book Collection (" + bookCount + " books) "
+                    shownCount == bookCount
+                        ? " My Book Collection (" + bookCount + " books) "
+                        : " My Book Collection (" + shownCount + " of " + bookCount + " books) "
                 ));
             }
         }
@@ -240,14 +354,17 @@ public class GUIInterface extends JFrame {
             return;
         }
         
-        String bookTitle = (String) tableData.getValueAt(selectedRow, 0);
-        Book foundBook = bookKeeper.locateBookByTitle(bookTitle);
+        Book foundBook = bookAtRow(selectedRow);
         
         if (foundBook != null) {
             showBookDialog("Edit Book Details", foundBook);
         }
     }
     
+    private Book bookAtRow(int row) {
+        return tableData.getBookAt(booksDisplay.convertRowIndexToModel(row));
+    }
+    
     private void showBookDialog(String windowTitle, Book existingBook) {
         JDialog dialogWindow = new JDialog(this, windowTitle, true);
         dialogWindow.setSize(420, 380);
@@ -391,16 +508,16 @@ public class GUIInterface extends JFrame {
             return;
         }
         
-        String bookTitle = (String) tableData.getValueAt(selectedIndex, 0);
-        Book bookToRemove = bookKeeper.locateBookByTitle(bookTitle);
+        Book bookToRemove = bookAtRow(selectedIndex);
         
         if (bookToRemove != null) {
+            String bookTitle = bookToRemove.getBookName();
             int userChoice = JOptionPane.showConfirmDialog(this, 
                 "Remove '" + bookTitle + "' from your collection?", 
                 "Confirm Deletion", 
                 JOptionPane.YES_NO_OPTION,
                 JOptionPane.QUESTION_MESSAGE);
-                
+            
             if (userChoice == JOptionPane.YES_OPTION) {
                 if (bookKeeper.removeBookFromCollection(bookToRemove)) {
                     refreshBookList();
@@ -412,7 +529,7 @@ public class GUIInterface extends JFrame {
     
     private void openSearchWindow() {
         JDialog searchDialog = new JDialog(this, "Find Books in Collection", true);
-        searchDialog.setSize(450, 300);
+        searchDialog.setSize(520, 340);
         searchDialog.setLocationRelativeTo(this);
         searchDialog.getContentPane().setBackground(BG_COLOR);
         
@@ -428,13 +545,14 @@ public class GUIInterface extends JFrame {
     }
     
     private JPanel createSearchFields() {
-        JPanel searchPanel = new JPanel(new GridLayout(4, 2, 10, 12));
+        JPanel searchPanel = new JPanel(new GridLayout(5, 2, 10, 12));
         searchPanel.setBackground(BG_COLOR);
         
         JTextField titleSearch = createStyledTextField();
         JTextField authorSearch = createStyledTextField();
         JTextField categorySearch = createStyledTextField();
-        JTextField yearSearch = createStyledTextField();
+        JTextField fromYearSearch = createStyledTextField();
+        JTextField toYearSearch = createStyledTextField();
         
         searchPanel.add(createFormLabel("Title contains:"));
         searchPanel.add(titleSearch);
@@ -442,8 +560,10 @@ public class GUIInterface extends JFrame {
         searchPanel.add(authorSearch);
         searchPanel.add(createFormLabel("Category contains:"));
         searchPanel.add(categorySearch);
-        searchPanel.add(createFormLabel("Exact year:"));
-        searchPanel.add(yearSearch);
+        searchPanel.add(createFormLabel("Published from year:"));
+        searchPanel.add(fromYearSearch);
+        searchPanel.add(createFormLabel("Published to year:"));
+        searchPanel.add(toYearSearch);
         
         return searchPanel;
     }
@@ -454,14 +574,17 @@ public class GUIInterface extends JFrame {
         
         JButton searchAction = createActionButton("Start Search", ACTION_COLOR);
         JButton clearAction = createActionButton("Clear Fields", DARK_PINK);
+        JButton decadesAction = createActionButton("Decades", DARK_PINK);
         JButton cancelAction = createActionButton("Close", new Color(199, 21, 133));
         
         searchAction.addActionListener(e -> performSearch(dialog));
         clearAction.addActionListener(e -> clearSearchFields(dialog));
+        decadesAction.addActionListener(e -> showDecadeCounts());
         cancelAction.addActionListener(e -> dialog.dispose());
         
         searchButtonPanel.add(searchAction);
         searchButtonPanel.add(clearAction);
+        searchButtonPanel.add(decadesAction);
         searchButtonPanel.add(cancelAction);
         
         return searchButtonPanel;
@@ -476,26 +599,26 @@ public class GUIInterface extends JFrame {
             String titleTerm = ((JTextField)searchPanel.getComponent(1)).getText().trim();
             String authorTerm = ((JTextField)searchPanel.getComponent(3)).getText().trim();
             String categoryTerm = ((JTextField)searchPanel.getComponent(5)).getText().trim();
-            String yearText = ((JTextField)searchPanel.getComponent(7)).getText().trim();
+            String fromYearText = ((JTextField)searchPanel.getComponent(7)).getText().trim();
+            String toYearText = ((JTextField)searchPanel.getComponent(9)).getText().trim();
             
-            Integer exactYear = null;
-            if (!yearText.isEmpty()) {
-                try {
-                    exactYear = Integer.parseInt(yearText);
-                } catch (NumberFormatException ex) {
-                    showMessage("Please enter a valid year number", "Year Format Error");
-                    return;
-                }
+            Integer fromYear;
+            Integer toYear;
+            try {
+                fromYear = fromYearText.isEmpty() ? null : Integer.parseInt(fromYearText);
+                toYear = toYearText.isEmpty() ? null : Integer.parseInt(toYearText);
+            } catch (NumberFormatException ex) {
+                showMessage("Please enter a valid year number", "Year Format Error");
+                return;
             }
             
-            List<Book> searchResults = bookKeeper.searchWithFilters(
+            startSearch(
                 titleTerm.isEmpty() ? null : titleTerm,
                 authorTerm.isEmpty() ? null : authorTerm,
                 categoryTerm.isEmpty() ? null : categoryTerm,
-                exactYear
+                fromYear,
+                toYear
             );
-            
-            displaySearchResults(searchResults);
             dialog.dispose();
         } catch (Exception ex) {
             showMessage("Search error: " + ex.getMessage(), "Search Problem");
@@ -506,36 +629,125 @@ public class GUIInterface extends JFrame {
         Component searchComponent = ((JPanel)dialog.getContentPane().getComponent(0)).getComponent(0);
         if (searchComponent instanceof JPanel) {
             JPanel searchPanel = (JPanel) searchComponent;
-            for (int i = 1; i < 8; i += 2) {
+            for (int i = 1; i < 10; i += 2) {
                 ((JTextField)searchPanel.getComponent(i)).setText("");
             }
         }
     }
     
-    private void displaySearchResults(List<Book> foundBooks) {
-        if (foundBooks.isEmpty()) {
-            showMessage("No books match your search criteria", "No Results");
+    // Counting may first build the indexes, so it runs off the event thread.
+    private void showDecadeCounts() {
+        if (decadeTask != null && !decadeTask.isDone()) {
             return;
         }
         
-        JDialog resultsWindow = new JDialog(this, "Search Results - " + foundBooks.size() + " books found", true);
+        ProgressWorker<String, Void> task = new ProgressWorker<>() {
+            @Override
+            protected String doInBackground() {
+                SortedMap<Integer, Integer> decades = bookKeeper.countBooksByDecade();
+                if (decades.isEmpty()) {
+                    return "Your collection is empty";
+                }
+                StringBuilder summary = new StringBuilder();
+                for (Map.Entry<Integer, Integer> decade : decades.entrySet()) {
+                    summary.append(decade.getKey()).append("s: ").append(decade.getValue()).append('\n');
+                }
+                summary.append("Before ").append(Book.OLD_BOOK_YEAR).append(": ")
+                       .append(bookKeeper.countBooksPublishedBetween(Integer.MIN_VALUE, Book.OLD_BOOK_YEAR - 1));
+                return summary.toString();
+            }
+            
+            @Override
+            protected void done() {
+                if (isCancelled()) return;
+                try {
+                    showMessage(get(), "Books per Decade");
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    showMessage("Couldn't count the books: " + cause.getMessage(), "Books per Decade");
+                }
+            }
+        };
+        decadeTask = task;
+        runWithProgress(task, "Counting books per decade...");
+    }
+    
+    // A new search replaces one that is still running. Matches stream into
+    // the results window as they are found; closing it stops the search.
+    private void startSearch(String titleTerm, String authorTerm, String categoryTerm, Integer fromYear, Integer toYear) {
+        if (searchTask != null && !searchTask.isDone()) {
+            searchTask.cancel(false);
+        }
+        
+        String[] resultColumns = {"Book Title", "Author", "Year", "Category", "Available"};
+        BookTableModel resultsModel = new BookTableModel(resultColumns, false);
+        JProgressBar searchProgress = new JProgressBar(0, 100);
+        JDialog resultsWindow = createResultsWindow(resultsModel, searchProgress);
+        
+        ProgressWorker<Void, List<Book>> task = new ProgressWorker<>() {
+            @Override
+            protected Void doInBackground() {
+                bookKeeper.searchWithFilters(titleTerm, authorTerm, categoryTerm, fromYear, toYear,
+                                             this, this::publishChunk);
+                return null;
+            }
+            
+            @SuppressWarnings("unchecked")
+            private void publishChunk(List<Book> chunk) {
+                publish(chunk);
+            }
+            
+            @Override
+            protected void process(List<List<Book>> chunks) {
+                for (List<Book> chunk : chunks) {
+                    resultsModel.appendBooks(chunk);
+                }
+                resultsWindow.setTitle("Search Results - " + resultsModel.getRowCount() + " books found so far");
+            }
+            
+            @Override
+            protected void done() {
+                searchProgress.setVisible(false);
+                if (isCancelled()) return;
+                try {
+                    get();
+                } catch (Exception ex) {
+                    resultsWindow.dispose();
+                    showMessage("Search error: " + ex.getMessage(), "Search Problem");
+                    return;
+                }
+                if (resultsModel.getRowCount() == 0) {
+                    resultsWindow.dispose();
+                    showMessage("No books match your search criteria", "No Results");
+                    return;
+                }
+                resultsWindow.setTitle("Search Results - " + resultsModel.getRowCount() + " books found");
+            }
+        };
+        task.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                searchProgress.setValue((Integer) e.getNewValue());
+            }
+        });
+        resultsWindow.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                task.cancel(false);
+            }
+        });
+        
+        searchTask = task;
+        resultsWindow.setVisible(true);
+        task.execute();
+    }
+    
+    private JDialog createResultsWindow(BookTableModel resultsModel, JProgressBar searchProgress) {
+        JDialog resultsWindow = new JDialog(this, "Searching...", false);
+        resultsWindow.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
         resultsWindow.setSize(750, 450);
         resultsWindow.setLocationRelativeTo(this);
         resultsWindow.getContentPane().setBackground(BG_COLOR);
         
-        String[] resultColumns = {"Book Title", "Author", "Year", "Category", "Available"};
-        DefaultTableModel resultsModel = new DefaultTableModel(resultColumns, 0);
-        
-        for (Book book : foundBooks) {
-            resultsModel.addRow(new Object[]{
-                book.getBookName(),
-                book.fetchWriter(),
-                String.valueOf(book.getPublishDate()),
-                book.getCategory(),
-                book.isInStock()
-            });
-        }
-        
         JTable resultsTable = new JTable(resultsModel);
         resultsTable.setBackground(LIGHT_PINK);
         resultsTable.setGridColor(new Color(255, 182, 193));
@@ -549,25 +761,180 @@ public class GUIInterface extends JFrame {
         JScrollPane resultsScroll = new JScrollPane(resultsTable);
         resultsScroll.getViewport().setBackground(LIGHT_PINK);
         
-        resultsWindow.add(resultsScroll);
-        resultsWindow.setVisible(true);
+        searchProgress.setForeground(ACTION_COLOR);
+        resultsWindow.add(resultsScroll, BorderLayout.CENTER);
+        resultsWindow.add(searchProgress, BorderLayout.SOUTH);
+        return resultsWindow;
     }
     
+    // Asking for another backup while one runs doesn't start a second writer;
+    // the running one is followed by exactly one more, which picks up every
+    // change made in the meantime.
     private void backupData() {
-        if (bookKeeper.saveMyLibrary()) {
-            showMessage("Your library data has been backed up successfully", "Backup Complete");
-        } else {
-            showMessage("Failed to create backup", "Backup Error");
+        if (backupTask != null && !backupTask.isDone()) {
+            backupRequestedAgain = true;
+            return;
         }
+        backupRequestedAgain = false;
+        
+        ProgressWorker<Boolean, Void> task = new ProgressWorker<>() {
+            @Override
+            protected Boolean doInBackground() {
+                return bookKeeper.saveMyLibrary(this);
+            }
+            
+            @Override
+            protected void done() {
+                if (backupRequestedAgain && !isCancelled()) {
+                    backupData();
+                    return;
+                }
+                if (isCancelled()) {
+                    showMessage("Backup was cancelled", "Backup Cancelled");
+                } else if (succeeded(this)) {
+                    showMessage("Your library data has been backed up successfully", "Backup Complete");
+                } else {
+                    showMessage("Failed to create backup", "Backup Error");
+                }
+            }
+        };
+        backupTask = task;
+        runWithProgress(task, "Backing up library...");
     }
     
     private void restoreData() {
-        if (bookKeeper.loadMyLibrary()) {
-            refreshBookList();
-            showMessage("Your library data has been restored", "Restore Complete");
-        } else {
-            showMessage("Restore failed or no backup file exists", "Restore Error");
+        if (restoreTask != null && !restoreTask.isDone()) {
+            return;
         }
+        
+        ProgressWorker<Boolean, Void> task = new ProgressWorker<>() {
+            @Override
+            protected Boolean doInBackground() {
+                return bookKeeper.loadMyLibrary(this);
+            }
+            
+            @Override
+            protected void done() {
+                refreshBookList();
+                if (isCancelled()) {
+                    showMessage("Restore was cancelled", "Restore Cancelled");
+                } else if (succeeded(this)) {
+                    showMessage("Your library data has been restored", "Restore Complete");
+                } else {
+                    showMessage("Restore failed or no backup file exists", "Restore Error");
+                }
+            }
+        };
+        restoreTask = task;
+        runWithProgress(task, "Restoring library...");
+    }
+    
+    private void importCatalogue() {
+        if (importTask != null && !importTask.isDone()) {
+            return;
+        }
+        
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Import CSV or JSON catalogue");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+        
+        ProgressWorker<ImportReport, Void> task = new ProgressWorker<>() {
+            @Override
+            protected ImportReport doInBackground() throws IOException {
+                return BookImporter.importFile(bookKeeper, file, this);
+            }
+            
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    showMessage("Import was cancelled, no books were added", "Import Cancelled");
+                    return;
+                }
+                refreshBookList();
+                try {
+                    showImportReport(get(), file);
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    showMessage("Import failed: " + cause.getMessage(), "Import Error");
+                }
+            }
+        };
+        importTask = task;
+        runWithProgress(task, "Importing " + file.getFileName() + "...");
+    }
+    
+    private void showImportReport(ImportReport report, Path file) {
+        if (report.getRejections().isEmpty()) {
+            showMessage(report.summary(), "Import Complete");
+            return;
+        }
+        
+        StringBuilder details = new StringBuilder();
+        try {
+            Path rejected = Paths.get(file + ".rejected.txt");
+            report.writeRejections(rejected);
+            details.append("Rejected records are listed in ").append(rejected).append("\n\n");
+        } catch (IOException ex) {
+            details.append("Couldn't write the rejection list: ").append(ex.getMessage()).append("\n\n");
+        }
+        List<ImportReport.Rejection> rejections = report.getRejections();
+        for (int i = 0; i < Math.min(10, rejections.size()); i++) {
+            details.append(rejections.get(i)).append('\n');
+        }
+        if (rejections.size() > 10) {
+            details.append("...");
+        }
+        
+        JTextArea detailArea = new JTextArea(details.toString(), 12, 60);
+        detailArea.setEditable(false);
+        JPanel reportPanel = new JPanel(new BorderLayout(5, 5));
+        reportPanel.add(new JLabel(report.summary()), BorderLayout.NORTH);
+        reportPanel.add(new JScrollPane(detailArea), BorderLayout.CENTER);
+        JOptionPane.showMessageDialog(this, reportPanel, "Import Complete", JOptionPane.INFORMATION_MESSAGE);
+    }
+    
+    private boolean succeeded(ProgressWorker<Boolean, Void> task) {
+        try {
+            return task.get();
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+    
+    private void runWithProgress(ProgressWorker<?, ?> task, String message) {
+        JDialog progressWindow = new JDialog(this, "Please wait", false);
+        progressWindow.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+        progressWindow.setSize(360, 140);
+        progressWindow.setLocationRelativeTo(this);
+        
+        JPanel progressPanel = new JPanel(new BorderLayout(10, 10));
+        progressPanel.setBackground(BG_COLOR);
+        progressPanel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+        
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        progressBar.setForeground(ACTION_COLOR);
+        progressBar.setStringPainted(true);
+        JButton cancelButton = createActionButton("Cancel", DARK_PINK);
+        cancelButton.addActionListener(e -> task.cancel(false));
+        
+        progressPanel.add(createFormLabel(message), BorderLayout.NORTH);
+        progressPanel.add(progressBar, BorderLayout.CENTER);
+        progressPanel.add(cancelButton, BorderLayout.SOUTH);
+        progressWindow.add(progressPanel);
+        
+        task.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                progressBar.setValue((Integer) e.getNewValue());
+            } else if ("state".equals(e.getPropertyName()) && task.isDone()) {
+                progressWindow.dispose();
+            }
+        });
+        
+        progressWindow.setVisible(true);
+        task.execute();
     }
     
     private void showMessage(String message, String title) {
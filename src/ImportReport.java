@@ -0,0 +1,69 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// What a catalogue import did: how many books went in and, for every record
+// that didn't, where it was in the file and why.
+public class ImportReport {
+    private static final int MAX_RECORD_CHARS = 200;
+    
+    public static final class Rejection {
+        private final long line;
+        private final String reason;
+        private final String record;
+        
+        Rejection(long line, String reason, String record) {
+            this.line = line;
+            this.reason = reason;
+            this.record = record.length() > MAX_RECORD_CHARS
+                    ? record.substring(0, MAX_RECORD_CHARS) + "..."
+                    : record;
+        }
+        
+        public long getLine() { return line; }
+        public String getReason() { return reason; }
+        public String getRecord() { return record; }
+        
+        @Override
+        public String toString() {
+            return "line " + line + ": " + reason + ": " + record;
+        }
+    }
+    
+    private int added;
+    private final List<Rejection> rejections = new ArrayList<>();
+    
+    void reject(long line, String reason, String record) {
+        rejections.add(new Rejection(line, reason, record));
+    }
+    
+    void setAdded(int added) {
+        this.added = added;
+    }
+    
+    public int getAdded() {
+        return added;
+    }
+    
+    public List<Rejection> getRejections() {
+        return Collections.unmodifiableList(rejections);
+    }
+    
+    public String summary() {
+        return "Imported " + added + " books, rejected " + rejections.size() + " records.";
+    }
+    
+    public void writeRejections(Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Rejection rejection : rejections) {
+                out.write(rejection.toString());
+                out.newLine();
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -1,15 +1,131 @@
+import javax.management.JMException;
 import javax.swing.*;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 
 public class LibraryApp {
     public static void main(String[] args) {
-        if (args.length > 0 && args[0].equals("-console")) {
-            ConsoleInterface console = new ConsoleInterface();
+        List<String> options = Arrays.asList(args);
+        LibraryManager manager = new LibraryManager();
+        if (options.contains("-journal")) {
+            manager.setJournaling(true);
+        }
+        
+        int importAt = options.indexOf("-import");
+        if (importAt >= 0) {
+            if (importAt + 1 >= options.size()) {
+                System.err.println("Usage: LibraryApp -import <file>");
+                System.exit(2);
+            }
+            System.exit(importCatalogue(manager, Paths.get(options.get(importAt + 1))) ? 0 : 1);
+        }
+        
+        int exportAt = options.indexOf("-export");
+        if (exportAt >= 0) {
+            if (exportAt + 1 >= options.size()) {
+                System.err.println("Usage: LibraryApp -export <csv|jsonl|store> [file]");
+                System.exit(2);
+            }
+            String target = exportAt + 2 < options.size() ? options.get(exportAt + 2) : "-";
+            System.exit(exportCollection(manager, options.get(exportAt + 1), target) ? 0 : 1);
+        }
+        
+        try {
+            manager.metrics().registerMBeans();
+            manager.queryCache().registerMBean();
+            StringPool.registerMBean();
+        } catch (JMException e) {
+            System.err.println("Couldn't register metrics with JMX: " + e.getMessage());
+        }
+        
+        int serverAt = options.indexOf("-server");
+        if (serverAt >= 0) {
+            int port = LibraryServer.DEFAULT_PORT;
+            if (serverAt + 1 < options.size() && !options.get(serverAt + 1).startsWith("-")) {
+                try {
+                    port = Integer.parseInt(options.get(serverAt + 1));
+                } catch (NumberFormatException e) {
+                    System.err.println("Usage: LibraryApp -server [port]");
+                    System.exit(2);
+                }
+            }
+            if (!serve(manager, port)) {
+                System.exit(1);
+            }
+        } else if (options.contains("-console")) {
+            ConsoleInterface console = new ConsoleInterface(manager);
             console.run();
         } else {
             SwingUtilities.invokeLater(() -> {
-                GUIInterface gui = new GUIInterface();
+                GUIInterface gui = new GUIInterface(manager);
                 gui.setVisible(true);
             });
         }
     }
+    
+    // Serves the saved collection until the process is stopped, then saves
+    // it; the server's threads keep the JVM running once main returns.
+    private static boolean serve(LibraryManager manager, int port) {
+        manager.loadMyLibrary();
+        LibraryServer server = new LibraryServer(manager, port);
+        try {
+            server.start();
+        } catch (IOException e) {
+            System.err.println("Couldn't listen on port " + port + ": " + e.getMessage());
+            return false;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            manager.saveMyLibrary();
+        }));
+        System.out.println("Serving " + manager.countBooks() + " books on http://localhost:" + server.port() + "/");
+        return true;
+    }
+    
+    // Adds the catalogue to the saved collection and saves it again. Rejected
+    // records are listed in a file next to the catalogue.
+    private static boolean importCatalogue(LibraryManager manager, Path file) {
+        manager.loadMyLibrary();
+        try {
+            ImportReport report = BookImporter.importFile(manager, file);
+            System.out.println(report.summary());
+            if (!report.getRejections().isEmpty()) {
+                Path rejected = Paths.get(file + ".rejected.txt");
+                report.writeRejections(rejected);
+                System.out.println("Rejected records are listed in " + rejected);
+            }
+        } catch (IOException e) {
+            System.err.println("Couldn't import " + file + ": " + e.getMessage());
+            return false;
+        }
+        return manager.saveMyLibrary();
+    }
+    
+    // Writes the saved collection to a file, or to stdout when the file is
+    // "-" or left out; messages go to stderr so they don't end up in a pipe.
+    private static boolean exportCollection(LibraryManager manager, String formatName, String target) {
+        BookExporter.Format format;
+        try {
+            format = BookExporter.Format.of(formatName);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown export format: " + formatName);
+            return false;
+        }
+        
+        manager.loadMyLibrary();
+        try {
+            long written = target.equals("-")
+                    ? ConsoleInterface.exportToStandardOutput(manager, format)
+                    : BookExporter.export(manager, format, Paths.get(target));
+            System.err.println("Exported " + written + " books");
+            return true;
+        } catch (IOException | InvalidPathException e) {
+            System.err.println("Couldn't export: " + e.getMessage());
+            return false;
+        }
+    }
 }
\ No newline at end of file
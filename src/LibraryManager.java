@@ -1,151 +1,1190 @@
-import java.io.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 public class LibraryManager {
-    private List<Book> myBooks;
+    private final ReentrantReadWriteLock lock;
+    // Saves and loads run one at a time under this, taken before lock, so a
+    // save can write its snapshot without holding lock.
+    private final ReentrantLock storing;
+    private volatile List<Book> published;
+    private BookShelf myBooks;
+    private SlotHashIndex bookIndex;
+    private SlotHashIndex titleIndex;
+    private SearchIndex searchIndex;
+    private boolean searchIndexDeferred;
+    private boolean indexed;
+    private long shelfGeneration;
+    private boolean mappedStore;
+    private BookJournal journal;
+    private boolean journalAnchored;
+    // The last journal generation the snapshot on disk includes.
+    private long snapshotGeneration;
+    private ExecutorService compactor;
+    private Future<?> compaction;
+    private final ParallelScan scanner;
+    private final LibraryMetrics metrics;
+    private final QueryCache cache;
     private static final String DATA_FILE = "books_collection.store";
+    private static final String JOURNAL_FILE = "books_collection.journal";
+    private static final String COMPACTING_FILE = "books_collection.journal.compacting";
+    private static final long COMPACT_AFTER_BYTES = 8L << 20;
+    private static final long GROUP_COMMIT_MILLIS = 200;
+    private static final int SEARCH_CHUNK = 512;
+    private static final int CANDIDATE_SHARE = 4;
+    private static final int PROGRESS_EVERY = 4096;
+    // Where applyChanges finds a key while checking a batch, besides a slot.
+    private static final int NO_BOOK = -1;
+    private static final int GIVEN_IN_BATCH = -2;
+    // A batch that removes or renames more than this share of the books
+    // rebuilds the search index once rather than book by book.
+    private static final int REINDEX_SHARE = 128;
     
     public LibraryManager() {
-        myBooks = new ArrayList<>();
+        lock = new ReentrantReadWriteLock();
+        storing = new ReentrantLock();
+        myBooks = new BookShelf();
+        bookIndex = new SlotHashIndex();
+        titleIndex = new SlotHashIndex();
+        searchIndex = new SearchIndex();
+        indexed = true;
+        scanner = new ParallelScan();
+        metrics = new LibraryMetrics();
+        cache = new QueryCache();
+    }
+    
+    public LibraryMetrics metrics() {
+        return metrics;
+    }
+    
+    public QueryCache queryCache() {
+        return cache;
+    }
+    
+    // In mapped mode the collection is saved in the fixed-width layout of
+    // MappedBookStore, and loading it maps the file instead of reading every
+    // book up front. Indexes are then built on the first lookup or change;
+    // listing and searching before that read the books straight off the map.
+    public void setMappedStore(boolean mappedStore) {
+        lock.writeLock().lock();
+        try {
+            this.mappedStore = mappedStore;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public boolean isMappedStore() {
+        return mappedStore;
+    }
+    
+    // In journaled mode every change is appended to books_collection.journal
+    // and saveMyLibrary only commits what was appended since the last call.
+    // The journal is relative to the snapshot in books_collection.store, so it
+    // starts recording once the two match: after a load or after the first
+    // save, which writes a full snapshot. Big journals are folded into a new
+    // snapshot in the background.
+    public boolean setJournaling(boolean enabled) {
+        lock.writeLock().lock();
+        try {
+            if (enabled && journal == null) {
+                journal = new BookJournal(Paths.get(JOURNAL_FILE));
+                journal.startGroupCommit(GROUP_COMMIT_MILLIS);
+                journalAnchored = false;
+            } else if (!enabled && journal != null) {
+                journal.close();
+                journal = null;
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Couldn't open journal: " + e.getMessage());
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public boolean isJournaling() {
+        return journal != null;
     }
     
     public boolean addBookToCollection(Book newBook) {
-        for (Book existing : myBooks) {
-            if (existing.equals(newBook)) {
+        long started = System.nanoTime();
+        try {
+            return addBook(newBook);
+        } finally {
+            metrics.timed(LibraryMetrics.Operation.ADD, started);
+        }
+    }
+    
+    // Loads add their books through here, so they aren't counted as adds.
+    private boolean addBook(Book newBook) {
+        lock.writeLock().lock();
+        try {
+            ensureIndexed();
+            BookKey key = BookKey.of(newBook);
+            if (slotOf(key) >= 0) {
                 return false;
             }
+            insert(newBook, key);
+            published = null;
+            cache.invalidate(newBook);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // Adds a whole batch under one lock. Each book is checked against the
+    // collection and the books before it, the same as adding them one at a
+    // time, but the shared snapshot is only dropped once. Returns the books
+    // that were left out as duplicates.
+    public List<Book> addBooksToCollection(List<Book> newBooks) {
+        long started = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            ensureIndexed();
+            List<Book> duplicates = new ArrayList<>();
+            List<Book> added = new ArrayList<>(newBooks.size());
+            for (Book book : newBooks) {
+                BookKey key = BookKey.of(book);
+                if (slotOf(key) >= 0) {
+                    duplicates.add(book);
+                    continue;
+                }
+                insert(book, key);
+                added.add(book);
+            }
+            if (!added.isEmpty()) {
+                published = null;
+                cache.invalidate(added);
+            }
+            return duplicates;
+        } finally {
+            lock.writeLock().unlock();
+            metrics.timed(LibraryMetrics.Operation.ADD, started);
         }
-        myBooks.add(newBook);
-        return true;
     }
     
     public boolean updateExistingBook(Book oldVersion, Book newVersion) {
-        int position = myBooks.indexOf(oldVersion);
-        if (position >= 0) {
-            for (int i = 0; i < myBooks.size(); i++) {
-                if (i != position && myBooks.get(i).equals(newVersion)) {
+        long started = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            ensureIndexed();
+            BookKey oldKey = BookKey.of(oldVersion);
+            int position = slotOf(oldKey);
+            if (position >= 0) {
+                BookKey newKey = BookKey.of(newVersion);
+                int clash = slotOf(newKey);
+                if (clash >= 0 && clash != position) {
                     return false;
                 }
+                Book replaced = replace(position, oldKey, newVersion, newKey);
+                published = null;
+                cache.invalidate(replaced);
+                cache.invalidate(newVersion);
+                return true;
+            }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+            metrics.timed(LibraryMetrics.Operation.UPDATE, started);
+        }
+    }
+    
+    public boolean setBookInStock(Book book, boolean inStock) {
+        long started = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            ensureIndexed();
+            int position = slotOf(BookKey.of(book));
+            if (position < 0) {
+                return false;
             }
-            myBooks.set(position, newVersion);
+            Book stored = myBooks.get(position);
+            Book restocked = restock(position, inStock);
+            published = null;
+            cache.invalidate(stored);
+            cache.invalidate(restocked);
             return true;
+        } finally {
+            lock.writeLock().unlock();
+            metrics.timed(LibraryMetrics.Operation.UPDATE, started);
+        }
+    }
+    
+    public List<BookChange.Outcome> applyChanges(List<BookChange> changes) {
+        return applyChanges(changes, false);
+    }
+    
+    // Makes a batch of changes under one write lock, with the outcome of
+    // each one, in order. Each change is checked against the collection as
+    // the changes before it leave it, so a second add of the same book, or
+    // an update of a book removed earlier in the batch, fails just as it
+    // would one call at a time. Every check is made before anything changes;
+    // the changes that passed are then made together, with the snapshot
+    // dropped and the cache invalidated once. Readers see the collection
+    // before the batch or after it, and the journal keeps the batch as one
+    // record, so a crash keeps all of it or none.
+    //
+    // With allOrNothing, one failed change means none is made; the ones that
+    // would have been come back SKIPPED.
+    public List<BookChange.Outcome> applyChanges(List<BookChange> changes, boolean allOrNothing) {
+        if (changes.isEmpty()) return new ArrayList<>();
+        long started = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            return applyBatch(changes, allOrNothing);
+        } finally {
+            lock.writeLock().unlock();
+            metrics.timed(LibraryMetrics.Operation.BATCH, started);
+        }
+    }
+    
+    // applyChanges for callers holding the write lock, uncounted, as a load
+    // replaying its journal is.
+    private List<BookChange.Outcome> applyBatch(List<BookChange> changes, boolean allOrNothing) {
+        ensureIndexed();
+        int[] slots = new int[changes.size()];
+        List<BookChange.Outcome> outcomes = check(changes, slots);
+        boolean failed = false;
+        for (BookChange.Outcome outcome : outcomes) {
+            failed |= outcome != BookChange.Outcome.APPLIED;
+        }
+        if (failed && allOrNothing) {
+            outcomes.replaceAll(outcome -> outcome == BookChange.Outcome.APPLIED ? BookChange.Outcome.SKIPPED : outcome);
+            return outcomes;
+        }
+        
+        List<Book> changed = new ArrayList<>();
+        boolean journaled = journal != null && journalAnchored;
+        if (journaled) journal.beginBatch();
+        searchIndexDeferred = reindexes(changes, outcomes) > myBooks.size() / REINDEX_SHARE;
+        try {
+            for (int i = 0; i < changes.size(); i++) {
+                if (outcomes.get(i) == BookChange.Outcome.APPLIED) {
+                    apply(changes.get(i), slots[i], changed);
+                }
+            }
+        } finally {
+            if (journaled) endJournalBatch();
+            if (searchIndexDeferred) {
+                searchIndexDeferred = false;
+                rebuildSearchIndex();
+            }
+        }
+        if (!changed.isEmpty()) {
+            published = null;
+            cache.invalidate(changed);
+        }
+        if (myBooks.needsCompaction()) {
+            rebuildFrom(myBooks.snapshot(), TaskProgress.NONE);
+        }
+        return outcomes;
+    }
+    
+    // Removals and renames are what make the search index slow to keep up:
+    // each one takes a slot out of the middle of long trigram postings.
+    // Adds only append, and other updates touch short postings.
+    private static int reindexes(List<BookChange> changes, List<BookChange.Outcome> outcomes) {
+        int count = 0;
+        for (int i = 0; i < changes.size(); i++) {
+            BookChange change = changes.get(i);
+            if (outcomes.get(i) != BookChange.Outcome.APPLIED || change.kind == BookChange.Kind.ADD
+                    || change.kind == BookChange.Kind.SET_IN_STOCK) continue;
+            BookKey key = change.kind == BookChange.Kind.UPDATE ? BookKey.of(change.book) : null;
+            if (key == null || !Objects.equals(key.title(), change.target.title())
+                    || !Objects.equals(key.author(), change.target.author())) {
+                count++;
+            }
         }
-        return false;
+        return count;
     }
     
+    private void rebuildSearchIndex() {
+        SearchIndex rebuilt = new SearchIndex();
+        for (int position = 0; position < myBooks.capacity(); position++) {
+            Book book = myBooks.get(position);
+            if (book != null) rebuilt.add(book, position);
+        }
+        searchIndex = rebuilt;
+    }
+    
+    // One pass over the batch, changing nothing. The keys the batch has
+    // touched so far are kept with whether a book has them after the
+    // changes before; any other key is looked up in the index, and the slot
+    // found is kept in slots for apply.
+    private List<BookChange.Outcome> check(List<BookChange> changes, int[] slots) {
+        Map<BookKey, Boolean> present = new HashMap<>();
+        List<BookChange.Outcome> outcomes = new ArrayList<>(changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            BookChange change = changes.get(i);
+            BookChange.Outcome outcome = BookChange.Outcome.APPLIED;
+            if (change.kind == BookChange.Kind.ADD) {
+                BookKey key = BookKey.of(change.book);
+                if (slotAfter(present, key) != NO_BOOK) {
+                    outcome = BookChange.Outcome.DUPLICATE;
+                } else {
+                    present.put(key, true);
+                }
+                outcomes.add(outcome);
+                continue;
+            }
+            
+            slots[i] = slotAfter(present, change.target);
+            if (slots[i] == NO_BOOK) {
+                outcome = BookChange.Outcome.NOT_FOUND;
+            } else if (change.kind == BookChange.Kind.REMOVE) {
+                present.put(change.target, false);
+            } else if (change.kind == BookChange.Kind.UPDATE) {
+                BookKey key = BookKey.of(change.book);
+                if (!key.equals(change.target)) {
+                    if (slotAfter(present, key) != NO_BOOK) {
+                        outcome = BookChange.Outcome.DUPLICATE;
+                    } else {
+                        present.put(change.target, false);
+                        present.put(key, true);
+                    }
+                }
+            }
+            outcomes.add(outcome);
+        }
+        return outcomes;
+    }
+    
+    // The key's slot, NO_BOOK, or GIVEN_IN_BATCH when an earlier change in
+    // the batch gave it to a book whose slot isn't known yet.
+    private int slotAfter(Map<BookKey, Boolean> present, BookKey key) {
+        Boolean known = present.get(key);
+        if (known == null) return slotOf(key);
+        return known ? GIVEN_IN_BATCH : NO_BOOK;
+    }
+    
+    // Only called for changes check has passed, in the same order, so the
+    // books they name are where check expected them. A slot check found in
+    // the index is still right: no change before this one touched the key,
+    // and nothing is renumbered until the batch is done.
+    private void apply(BookChange change, int slot, List<Book> changed) {
+        if (change.kind == BookChange.Kind.ADD) {
+            insert(change.book, BookKey.of(change.book));
+            changed.add(change.book);
+            return;
+        }
+        int position = slot >= 0 ? slot : slotOf(change.target);
+        switch (change.kind) {
+            case UPDATE -> {
+                changed.add(replace(position, change.target, change.book, BookKey.of(change.book)));
+                changed.add(change.book);
+            }
+            case REMOVE -> changed.add(free(position, change.target));
+            case SET_IN_STOCK -> {
+                changed.add(myBooks.get(position));
+                changed.add(restock(position, change.inStock));
+            }
+            default -> { }
+        }
+    }
+    
+    // The indexes only hold hashes and slots, so every slot they offer is
+    // checked against what is stored there, without building the book.
+    private int slotOf(BookKey key) {
+        return bookIndex.find(key.hashCode(), position -> myBooks.hasKey(position, key));
+    }
+    
+    // The changes themselves, for callers holding the write lock that have
+    // checked the change can be made. Each keeps the indexes and the journal
+    // up to date, apart from the search index while a batch has deferred it;
+    // dropping the snapshot and the cached results is left to the caller, so
+    // a batch does that once.
+    private void insert(Book book, BookKey key) {
+        int position = myBooks.append(book);
+        bookIndex.add(key.hashCode(), position);
+        indexTitle(book, position);
+        if (!searchIndexDeferred) searchIndex.add(book, position);
+        logChange(log -> log.logAdd(book));
+    }
+    
+    // Returns the book that was replaced. Indexes are only touched for the
+    // fields that changed.
+    private Book replace(int position, BookKey oldKey, Book newVersion, BookKey newKey) {
+        if (!newKey.equals(oldKey)) {
+            bookIndex.remove(oldKey.hashCode(), position);
+            bookIndex.add(newKey.hashCode(), position);
+        }
+        Book replaced = myBooks.get(position);
+        if (!Objects.equals(replaced.getBookName(), newVersion.getBookName())
+                && !Objects.equals(titleKey(replaced), titleKey(newVersion))) {
+            unindexTitle(replaced, position);
+            indexTitle(newVersion, position);
+        }
+        myBooks.put(position, newVersion);
+        if (!searchIndexDeferred) searchIndex.replace(replaced, newVersion, position);
+        logChange(log -> log.logUpdate(replaced, newVersion));
+        return replaced;
+    }
+    
+    private Book restock(int position, boolean inStock) {
+        Book stored = myBooks.get(position);
+        Book restocked = new Book(stored.getBookName(), stored.getWriter(), stored.getPublishDate(), stored.getCategory());
+        restocked.setInStock(inStock);
+        myBooks.put(position, restocked);
+        logChange(log -> log.logStock(restocked, inStock));
+        return restocked;
+    }
+    
+    private Book free(int position, BookKey key) {
+        bookIndex.remove(key.hashCode(), position);
+        Book removed = myBooks.free(position);
+        unindexTitle(removed, position);
+        if (!searchIndexDeferred) searchIndex.remove(removed, position);
+        logChange(log -> log.logRemove(removed));
+        return removed;
+    }
+    
+    private static String titleKey(Book book) {
+        return book.getBookName() == null ? null : BookKey.fold(book.getBookName());
+    }
+    
+    private void indexTitle(Book book, int position) {
+        if (book.getBookName() == null) return;
+        titleIndex.add(BookKey.fold(book.getBookName()).hashCode(), position);
+    }
+    
+    private void unindexTitle(Book book, int position) {
+        if (book.getBookName() == null) return;
+        titleIndex.remove(BookKey.fold(book.getBookName()).hashCode(), position);
+    }
+    
+    // Books whose title folds to the given one, in collection order.
+    private List<Book> booksWithTitle(String folded, boolean firstOnly) {
+        PostingList positions = new PostingList();
+        titleIndex.forEach(folded.hashCode(), positions::add);
+        List<Book> matches = new ArrayList<>();
+        for (int i = 0; i < positions.size(); i++) {
+            if (myBooks.titleFoldsTo(positions.get(i), folded)) {
+                matches.add(myBooks.get(positions.get(i)));
+                if (firstOnly) break;
+            }
+        }
+        return matches;
+    }
+    
+    // The returned list is an immutable snapshot shared by every caller until
+    // the next change, so listing needs neither a copy nor a lock.
     public List<Book> getAllMyBooks() {
-        return new ArrayList<>(myBooks);
+        List<Book> current = published;
+        if (current != null) {
+            return current;
+        }
+        
+        lock.readLock().lock();
+        try {
+            current = published;
+            if (current == null) {
+                current = myBooks.snapshot();
+                published = current;
+            }
+            return current;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
     
     public Book locateBookByTitle(String title) {
-        if (title == null || title.trim().isEmpty()) return null;
+        List<Book> matches = locateBooksByTitle(title, true);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+    
+    public List<Book> locateBooksByTitle(String title) {
+        return locateBooksByTitle(title, false);
+    }
+    
+    private List<Book> locateBooksByTitle(String title, boolean firstOnly) {
+        if (title == null || title.trim().isEmpty()) return new ArrayList<>();
         
-        for (Book book : myBooks) {
-            if (book.getBookName().equalsIgnoreCase(title.trim())) {
-                return book;
+        long started = System.nanoTime();
+        lockIndexedForRead();
+        try {
+            List<Book> matches = booksWithTitle(BookKey.fold(title.trim()), firstOnly);
+            metrics.lookedUp(!matches.isEmpty());
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+            metrics.timed(LibraryMetrics.Operation.LOOKUP, started);
+        }
+    }
+    
+    public Book locateExactBook(String title, String author, int year) {
+        long started = System.nanoTime();
+        lockIndexedForRead();
+        try {
+            int position = slotOf(BookKey.of(title, author, year));
+            metrics.lookedUp(position >= 0);
+            return position < 0 ? null : myBooks.get(position);
+        } finally {
+            lock.readLock().unlock();
+            metrics.timed(LibraryMetrics.Operation.LOOKUP, started);
+        }
+    }
+    
+    // Lazily built indexes have to be built under the write lock before a
+    // reader may use them; the read lock can't be upgraded in place.
+    private void lockIndexedForRead() {
+        while (true) {
+            lock.readLock().lock();
+            if (indexed) return;
+            lock.readLock().unlock();
+            
+            lock.writeLock().lock();
+            try {
+                ensureIndexed();
+            } finally {
+                lock.writeLock().unlock();
             }
         }
-        return null;
     }
     
     public List<Book> findBooks(String searchTerm) {
         if (searchTerm == null || searchTerm.trim().isEmpty()) {
-            return new ArrayList<>(myBooks);
+            return getAllMyBooks();
         }
         
-        List<Book> found = new ArrayList<>();
-        for (Book book : myBooks) {
-            if (book.matchesSearch(searchTerm)) {
-                found.add(book);
+        long started = System.nanoTime();
+        String searchLower = searchTerm.toLowerCase();
+        String key = "find " + searchLower;
+        lock.readLock().lock();
+        try {
+            List<Book> cached = cache.get(key);
+            if (cached != null) {
+                metrics.found(cached.size());
+                return cached;
             }
+            
+            List<Book> found = new ArrayList<>();
+            int[] candidates = indexed ? searchIndex.candidatesFor(searchTerm) : null;
+            metrics.searched(candidates != null);
+            // Rows are checked on their columns like query does, and only
+            // matches are built.
+            Criterion text = Criterion.anyOf(Criterion.titleContains(searchTerm),
+                                             Criterion.authorContains(searchTerm),
+                                             Criterion.categoryContains(searchTerm));
+            Supplier<IntFunction<Book>> matchers = () -> {
+                BookShelf.Cursor cursor = myBooks.cursor();
+                Predicate<BookFields> test = text.newTest();
+                return slot -> cursor.moveTo(slot)
+                    && (test.test(cursor) || Book.yearText(cursor.year()).contains(searchTerm)) ? myBooks.get(slot) : null;
+            };
+            if (candidates == null) {
+                scanner.forEachMatch(myBooks.capacity(), matchers, TaskProgress.NONE, found::add);
+            } else {
+                scanner.forEachMatch(candidates.length, () -> {
+                    IntFunction<Book> matcher = matchers.get();
+                    return i -> matcher.apply(candidates[i]);
+                }, TaskProgress.NONE, found::add);
+            }
+            metrics.found(found.size());
+            return cache.put(key, found, book -> book.matchesLowered(searchLower, searchTerm));
+        } finally {
+            lock.readLock().unlock();
+            metrics.timed(LibraryMetrics.Operation.SEARCH, started);
         }
-        return found;
     }
     
     public List<Book> searchWithFilters(String titlePart, String authorPart, String categoryPart, Integer exactYear) {
-        List<Book> results = new ArrayList<>();
-        
+        return searchWithFilters(titlePart, authorPart, categoryPart, exactYear, exactYear);
+    }
+    
+    // Either year bound may be null for an open end; both are included.
+    public List<Book> searchWithFilters(String titlePart, String authorPart, String categoryPart,
+                                        Integer minYear, Integer maxYear) {
         if ((titlePart == null || titlePart.isEmpty()) && 
             (authorPart == null || authorPart.isEmpty()) && 
             (categoryPart == null || categoryPart.isEmpty()) && 
-            exactYear == null) {
-            return new ArrayList<>(myBooks);
+            minYear == null && maxYear == null) {
+            return getAllMyBooks();
         }
         
-        for (Book book : myBooks) {
-            boolean matches = true;
-            
-            if (titlePart != null && !titlePart.isEmpty()) {
-                matches = book.getBookName().toLowerCase().contains(titlePart.toLowerCase());
+        return query(BookQuery.where(filtersOf(titlePart, authorPart, categoryPart, minYear, maxYear)));
+    }
+    
+    // Streaming variant for callers that show results as they are found:
+    // matches are handed over in collection order, in chunks, while the scan
+    // runs. The scan stops early if progress reports cancellation. A cached
+    // result is handed over in the same chunks, and a finished scan is cached
+    // for the list variant too.
+    public void searchWithFilters(String titlePart, String authorPart, String categoryPart, Integer exactYear,
+                                  TaskProgress progress, Consumer<List<Book>> chunks) {
+        searchWithFilters(titlePart, authorPart, categoryPart, exactYear, exactYear, progress, chunks);
+    }
+    
+    public void searchWithFilters(String titlePart, String authorPart, String categoryPart,
+                                  Integer minYear, Integer maxYear,
+                                  TaskProgress progress, Consumer<List<Book>> chunks) {
+        long started = System.nanoTime();
+        BookQuery query = BookQuery.where(filtersOf(titlePart, authorPart, categoryPart, minYear, maxYear));
+        List<Book> chunk = new ArrayList<>(SEARCH_CHUNK);
+        List<Book> kept = new ArrayList<>();
+        int[] found = new int[1];
+        List<Book> cached;
+        lock.readLock().lock();
+        try {
+            cached = cache.get(query);
+            if (cached == null) {
+                int largest = cache.largestResult();
+                forEachMatch(query.criterion(), progress, () -> false, book -> {
+                    if (++found[0] <= largest) kept.add(book);
+                    chunk.add(book);
+                    if (chunk.size() == SEARCH_CHUNK) {
+                        chunks.accept(new ArrayList<>(chunk));
+                        chunk.clear();
+                    }
+                });
+                if (found[0] <= largest) {
+                    cache.put(query, kept, query.criterion()::test);
+                }
             }
-            
-            if (matches && authorPart != null && !authorPart.isEmpty()) {
-                matches = book.getWriter().toLowerCase().contains(authorPart.toLowerCase());
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (cached != null) {
+            found[0] = cached.size();
+            for (int from = 0; from < cached.size(); from += SEARCH_CHUNK) {
+                chunks.accept(new ArrayList<>(cached.subList(from, Math.min(cached.size(), from + SEARCH_CHUNK))));
             }
-            
-            if (matches && categoryPart != null && !categoryPart.isEmpty()) {
-                matches = book.getCategory().toLowerCase().contains(categoryPart.toLowerCase());
+        } else if (!chunk.isEmpty()) {
+            chunks.accept(chunk);
+        }
+        metrics.found(found[0]);
+        metrics.timed(LibraryMetrics.Operation.SEARCH, started);
+    }
+    
+    // Empty parts are left out, as searchWithFilters always has.
+    static Criterion filtersOf(String titlePart, String authorPart, String categoryPart,
+                                       Integer minYear, Integer maxYear) {
+        Criterion criterion = Criterion.any();
+        if (titlePart != null && !titlePart.isEmpty()) {
+            criterion = criterion.and(Criterion.titleContains(titlePart));
+        }
+        if (authorPart != null && !authorPart.isEmpty()) {
+            criterion = criterion.and(Criterion.authorContains(authorPart));
+        }
+        if (categoryPart != null && !categoryPart.isEmpty()) {
+            criterion = criterion.and(Criterion.categoryContains(categoryPart));
+        }
+        if (minYear != null || maxYear != null) {
+            criterion = criterion.and(Criterion.yearBetween(minYear == null ? Integer.MIN_VALUE : minYear,
+                                                            maxYear == null ? Integer.MAX_VALUE : maxYear));
+        }
+        return criterion;
+    }
+    
+    // Runs a query under one read lock. An unsorted query stops scanning as
+    // soon as its page is full.
+    public List<Book> query(BookQuery query) {
+        long started = System.nanoTime();
+        List<Book> books;
+        lock.readLock().lock();
+        try {
+            books = cache.get(query);
+            if (books == null) {
+                BookQuery.Page page = query.newPage();
+                if (query.limit() > 0) {
+                    forEachMatch(query.criterion(), TaskProgress.NONE, page::isFull, page);
+                }
+                books = cache.put(query, page.books(), query.criterion()::test);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        metrics.found(books.size());
+        metrics.timed(LibraryMetrics.Operation.SEARCH, started);
+        return books;
+    }
+    
+    // Hands over the books matching a criterion in collection order. When
+    // the indexes can narrow the criterion down far enough only their
+    // candidates are checked, otherwise every slot is; either way rows are
+    // checked on the stored columns and only matches are built. Each scanning
+    // thread gets its own cursor and test. The caller holds the read lock.
+    private void forEachMatch(Criterion criterion, TaskProgress progress, BooleanSupplier enough,
+                              Consumer<Book> matches) {
+        Supplier<IntFunction<Book>> matchers = () -> {
+            BookShelf.Cursor cursor = myBooks.cursor();
+            Predicate<BookFields> test = criterion.newTest();
+            return slot -> cursor.moveTo(slot) && test.test(cursor) ? myBooks.get(slot) : null;
+        };
+        
+        int[] candidates = candidatesOf(criterion);
+        if (candidates == null) {
+            scanner.forEachMatch(myBooks.capacity(), matchers, progress, enough, matches);
+            return;
+        }
+        scanner.forEachMatch(candidates.length, () -> {
+            IntFunction<Book> matcher = matchers.get();
+            return i -> matcher.apply(candidates[i]);
+        }, progress, enough, matches);
+    }
+    
+    // Candidates cost a sort and random access; past a quarter of the
+    // collection a straight scan is cheaper, and null says to do one.
+    private int[] candidatesOf(Criterion criterion) {
+        int[] candidates = null;
+        if (indexed && criterion.estimate(searchIndex) <= myBooks.capacity() / CANDIDATE_SHARE) {
+            candidates = criterion.candidates(searchIndex);
+        }
+        metrics.searched(candidates != null);
+        return candidates;
+    }
+    
+    // Reads one page of a listing or search in collection order. The page
+    // is read from the slot its cursor points at, so paging deep into a
+    // large collection costs no more than reading the first page. One match
+    // past the page is looked for, to tell whether there is a next page.
+    public BookPage page(BookPage.Cursor cursor) {
+        long started = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            int from = 0;
+            long skip = cursor.skipped;
+            if (cursor.generation == shelfGeneration) {
+                from = cursor.slot;
+                skip = 0;
+            } else if (cursor.after != null && indexed) {
+                int last = slotOf(cursor.after);
+                if (last >= 0) {
+                    from = last + 1;
+                    skip = 0;
+                }
             }
             
-            if (matches && exactYear != null) {
-                matches = book.getPublishDate() == exactYear;
+            int[] candidates = candidatesOf(cursor.criterion);
+            int end = candidates == null ? myBooks.capacity() : candidates.length;
+            int i = from;
+            if (candidates != null) {
+                i = Arrays.binarySearch(candidates, from);
+                if (i < 0) i = -i - 1;
             }
             
-            if (matches) {
-                results.add(book);
+            BookShelf.Cursor row = myBooks.cursor();
+            Predicate<BookFields> test = cursor.criterion.newTest();
+            List<Book> books = new ArrayList<>(Math.min(cursor.pageSize, SEARCH_CHUNK));
+            BookPage.Cursor next = null;
+            for (; i < end; i++) {
+                int slot = candidates == null ? i : candidates[i];
+                if (!row.moveTo(slot) || !test.test(row)) continue;
+                if (skip > 0) {
+                    skip--;
+                } else if (books.size() < cursor.pageSize) {
+                    books.add(myBooks.get(slot));
+                } else {
+                    BookKey last = BookKey.of(books.get(books.size() - 1));
+                    next = new BookPage.Cursor(cursor.criterion, cursor.pageSize, shelfGeneration, slot,
+                                               cursor.skipped + books.size(), last);
+                    break;
+                }
             }
+            metrics.found(books.size());
+            return new BookPage(cursor, books, next);
+        } finally {
+            lock.readLock().unlock();
+            metrics.timed(LibraryMetrics.Operation.SEARCH, started);
         }
-        return results;
     }
     
     public boolean saveMyLibrary() {
+        return saveMyLibrary(TaskProgress.NONE);
+    }
+    
+    // A full snapshot is taken under the write lock but written without it,
+    // so readers and writers carry on while it goes to disk; only a save or
+    // load waits for it.
+    public boolean saveMyLibrary(TaskProgress progress) {
+        long started = System.nanoTime();
+        storing.lock();
         try {
-            FileOutputStream fileOut = new FileOutputStream(DATA_FILE);
-            ObjectOutputStream objOut = new ObjectOutputStream(fileOut);
-            objOut.writeObject(myBooks);
-            objOut.close();
-            fileOut.close();
+            List<Book> books;
+            long generation;
+            boolean mapped;
+            lock.writeLock().lock();
+            try {
+                if (journal != null && journalAnchored) {
+                    long before = journal.size();
+                    journal.commit();
+                    metrics.wrote(journal.size() - before);
+                    if (journal.size() > COMPACT_AFTER_BYTES) {
+                        startCompaction();
+                    }
+                    metrics.timed(LibraryMetrics.Operation.SAVE, started);
+                    return true;
+                }
+                awaitCompaction();
+                generation = includedGeneration();
+                books = getAllMyBooks();
+                mapped = mappedStore;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            
+            writeStore(mapped, books, generation, progress);
+            lock.writeLock().lock();
+            try {
+                snapshotWritten(books, generation);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            metrics.timed(LibraryMetrics.Operation.SAVE, started);
             return true;
         } catch (IOException e) {
             System.err.println("Couldn't save: " + e.getMessage());
+            metrics.failed(LibraryMetrics.Operation.SAVE, started, e.getMessage());
             return false;
+        } catch (CancellationException e) {
+            return false;
+        } finally {
+            storing.unlock();
         }
     }
     
-    @SuppressWarnings("unchecked")
     public boolean loadMyLibrary() {
-        File dataFile = new File(DATA_FILE);
-        if (!dataFile.exists()) {
+        return loadMyLibrary(TaskProgress.NONE);
+    }
+    
+    // Cancelling only works while the file is being read; once the collection
+    // starts being replaced the load runs to the end.
+    public boolean loadMyLibrary(TaskProgress progress) {
+        Path dataFile = Paths.get(DATA_FILE);
+        if (!Files.exists(dataFile)) {
             return false;
         }
         
+        long started = System.nanoTime();
+        storing.lock();
+        lock.writeLock().lock();
         try {
-            FileInputStream fileIn = new FileInputStream(DATA_FILE);
-            ObjectInputStream objIn = new ObjectInputStream(fileIn);
-            myBooks = (List<Book>) objIn.readObject();
-            objIn.close();
-            fileIn.close();
+            awaitCompaction();
+            metrics.read(fileSize(dataFile) + fileSize(Paths.get(COMPACTING_FILE)) + fileSize(Paths.get(JOURNAL_FILE)));
+            long included = BookStoreFormat.journalGenerationOf(dataFile);
+            List<Book> loaded = BookStoreFormat.read(dataFile, progress.phase(0, 2));
+            cache.clear();
+            rebuildFrom(loaded, progress.phase(1, 2));
+            replayJournal(Paths.get(COMPACTING_FILE), included);
+            replayJournal(Paths.get(JOURNAL_FILE), included);
+            snapshotGeneration = included;
+            if (journal != null) {
+                journal.discardPending();
+                if (journal.generation() <= included) {
+                    journal.restart(includedGeneration() + 1);
+                }
+                journalAnchored = true;
+            }
+            metrics.timed(LibraryMetrics.Operation.LOAD, started);
             return true;
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.err.println("Couldn't load: " + e.getMessage());
+            metrics.failed(LibraryMetrics.Operation.LOAD, started, e.getMessage());
             return false;
+        } catch (CancellationException e) {
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+            storing.unlock();
+        }
+    }
+    
+    // The snapshot includes every journal generation there is: the ones
+    // replayed into the books and any left over from before, which the
+    // books as they are now supersede.
+    private void writeSnapshot(TaskProgress progress) throws IOException {
+        awaitCompaction();
+        long generation = includedGeneration();
+        List<Book> books = getAllMyBooks();
+        writeStore(mappedStore, books, generation, progress);
+        snapshotWritten(books, generation);
+    }
+    
+    // The journal starts over from the snapshot just written. Changes made
+    // while it was written outside the lock are in neither, so the journal
+    // only picks up from there if there were none; otherwise the next save
+    // writes a full snapshot again.
+    private void snapshotWritten(List<Book> books, long generation) throws IOException {
+        snapshotGeneration = generation;
+        if (journal != null) {
+            journal.restart(generation + 1);
+            journalAnchored = published == books;
+        } else {
+            Files.deleteIfExists(Paths.get(JOURNAL_FILE));
+        }
+        Files.deleteIfExists(Paths.get(COMPACTING_FILE));
+    }
+    
+    private long includedGeneration() throws IOException {
+        long journaled = journal != null ? journal.generation() : BookJournal.generationOf(Paths.get(JOURNAL_FILE));
+        long compacting = BookJournal.generationOf(Paths.get(COMPACTING_FILE));
+        return Math.max(snapshotGeneration, Math.max(journaled, compacting));
+    }
+    
+    private void writeStore(boolean mapped, List<Book> books, long journalGeneration,
+                            TaskProgress progress) throws IOException {
+        Path dataFile = Paths.get(DATA_FILE);
+        if (mapped) {
+            metrics.wrote(MappedBookStore.write(dataFile, books, journalGeneration, progress));
+        } else {
+            BookStoreFormat.write(dataFile, books, journalGeneration, progress);
+            MappedBookStore.deleteGenerations(dataFile, 0);
+            metrics.wrote(fileSize(dataFile));
+        }
+    }
+    
+    private static long fileSize(Path file) throws IOException {
+        return Files.exists(file) ? Files.size(file) : 0;
+    }
+    
+    // The committed journal is set aside and the books as they are now are
+    // written as the new snapshot on a background thread. Until that is done
+    // a load replays the set-aside journal as well, so nothing is lost if the
+    // compaction never finishes.
+    private void startCompaction() throws IOException {
+        if (compaction != null && !compaction.isDone()) return;
+        if (Files.exists(Paths.get(COMPACTING_FILE))) {
+            writeSnapshot(TaskProgress.NONE);
+            return;
+        }
+        
+        long generation = journal.generation();
+        journal.rotateTo(Paths.get(COMPACTING_FILE));
+        List<Book> snapshot = getAllMyBooks();
+        boolean mapped = mappedStore;
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "book-journal-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        compaction = compactor.submit(() -> {
+            long started = System.nanoTime();
+            try {
+                writeStore(mapped, snapshot, generation, TaskProgress.NONE);
+                Files.deleteIfExists(Paths.get(COMPACTING_FILE));
+            } catch (IOException e) {
+                System.err.println("Couldn't compact journal: " + e.getMessage());
+                metrics.failed(LibraryMetrics.Operation.SAVE, started, "compaction: " + e.getMessage());
+            }
+        });
+    }
+    
+    private void awaitCompaction() throws IOException {
+        if (compaction == null) return;
+        try {
+            compaction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compacting journal", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Journal compaction failed: " + e.getCause(), e);
+        } finally {
+            compaction = null;
+        }
+    }
+    
+    // The whole journal goes in as one batch, which makes each change the
+    // same way the call that logged it did. A mapped store is only indexed
+    // if there is something to replay, so an empty journal keeps its load
+    // lazy.
+    private void replayJournal(Path file, long included) throws IOException {
+        List<BookJournal.Entry> entries = BookJournal.replay(file, included);
+        if (entries.isEmpty()) return;
+        List<BookChange> changes = new ArrayList<>(entries.size());
+        for (BookJournal.Entry entry : entries) {
+            changes.add(switch (entry.op) {
+                case BookJournal.ADD -> new BookChange(BookChange.Kind.ADD, null, entry.book, false);
+                case BookJournal.UPDATE -> new BookChange(BookChange.Kind.UPDATE, entry.target, entry.book, false);
+                case BookJournal.REMOVE -> new BookChange(BookChange.Kind.REMOVE, entry.target, null, false);
+                default -> new BookChange(BookChange.Kind.SET_IN_STOCK, entry.target, null, entry.inStock);
+            });
+        }
+        BookJournal active = journal;
+        journal = null;
+        try {
+            applyBatch(changes, false);
+        } finally {
+            journal = active;
+        }
+    }
+    
+    private interface JournalWrite {
+        void to(BookJournal log) throws IOException;
+    }
+    
+    // A change that can't be journaled leaves the journal behind the
+    // collection, so the next save falls back to a full snapshot.
+    private void logChange(JournalWrite change) {
+        if (journal == null || !journalAnchored) return;
+        try {
+            change.to(journal);
+        } catch (IOException e) {
+            System.err.println("Couldn't journal change: " + e.getMessage());
+            journalAnchored = false;
+        }
+    }
+    
+    // Unlike other journal writes this has to happen even once the journal
+    // has fallen behind, or the batch would stay open.
+    private void endJournalBatch() {
+        try {
+            journal.endBatch();
+        } catch (IOException e) {
+            System.err.println("Couldn't journal change: " + e.getMessage());
+            journalAnchored = false;
         }
     }
     
     public boolean removeBookFromCollection(Book toRemove) {
-        return myBooks.remove(toRemove);
+        long started = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            if (toRemove == null) return false;
+            ensureIndexed();
+            BookKey key = BookKey.of(toRemove);
+            int position = slotOf(key);
+            if (position < 0) {
+                return false;
+            }
+            Book removed = free(position, key);
+            published = null;
+            cache.invalidate(removed);
+            if (myBooks.needsCompaction()) {
+                rebuildFrom(myBooks.snapshot(), TaskProgress.NONE);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+            metrics.timed(LibraryMetrics.Operation.REMOVE, started);
+        }
+    }
+    
+    // Slots are renumbered from scratch; a stored collection that somehow holds
+    // equal books keeps only the first one, the same as adding them one by one.
+    private void rebuildFrom(List<Book> books, TaskProgress progress) {
+        published = null;
+        shelfGeneration++;
+        if (books instanceof MappedBookStore.MappedBooks) {
+            myBooks = new BookShelf(books);
+            mappedStore = true;
+            indexed = false;
+            bookIndex = new SlotHashIndex();
+            titleIndex = new SlotHashIndex();
+            searchIndex = new SearchIndex();
+            return;
+        }
+        
+        myBooks = new BookShelf();
+        bookIndex = new SlotHashIndex(books.size());
+        titleIndex = new SlotHashIndex(books.size());
+        searchIndex = new SearchIndex();
+        indexed = true;
+        BookJournal active = journal;
+        journal = null;
+        try {
+            int added = 0;
+            for (Book book : books) {
+                addBook(book);
+                if (++added % PROGRESS_EVERY == 0) {
+                    progress.update(added, books.size());
+                }
+            }
+        } finally {
+            journal = active;
+        }
+    }
+    
+    private void ensureIndexed() {
+        if (indexed) return;
+        indexed = true;
+        bookIndex = new SlotHashIndex(myBooks.size());
+        titleIndex = new SlotHashIndex(myBooks.size());
+        for (int position = 0; position < myBooks.capacity(); position++) {
+            Book book = myBooks.get(position);
+            if (book == null) continue;
+            BookKey key = BookKey.of(book);
+            if (slotOf(key) >= 0) {
+                myBooks.free(position);
+                published = null;
+                cache.invalidate(book);
+                continue;
+            }
+            bookIndex.add(key.hashCode(), position);
+            indexTitle(book, position);
+            searchIndex.add(book, position);
+        }
     }
     
     public int countBooks() {
-        return myBooks.size();
+        List<Book> current = published;
+        if (current != null) {
+            return current.size();
+        }
+        
+        lock.readLock().lock();
+        try {
+            return myBooks.size();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
     
     public List<Book> getOldBooks() {
-        return myBooks.stream()
-                     .filter(Book::isOldBook)
-                     .collect(Collectors.toList());
+        return getBooksOlderThan(Book.OLD_BOOK_YEAR);
+    }
+    
+    // Books published before the given year.
+    public List<Book> getBooksOlderThan(int year) {
+        return query(BookQuery.where(Criterion.publishedBefore(year)));
+    }
+    
+    // Both ends are included.
+    public List<Book> getBooksPublishedBetween(int fromYear, int toYear) {
+        return query(BookQuery.where(Criterion.yearBetween(fromYear, toYear)));
+    }
+    
+    // Answered from the year index alone, without reading any book.
+    public int countBooksPublishedBetween(int fromYear, int toYear) {
+        lockIndexedForRead();
+        try {
+            return searchIndex.yearCount(fromYear, toYear);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    // Book counts keyed by the first year of each decade, oldest first.
+    public SortedMap<Integer, Integer> countBooksByDecade() {
+        lockIndexedForRead();
+        try {
+            return searchIndex.countsByDecade();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
     
     public boolean addNewBook(Book book) {
@@ -164,10 +1203,18 @@ public class LibraryManager {
         return locateBookByTitle(title);
     }
     
+    public List<Book> findBooksByName(String title) {
+        return locateBooksByTitle(title);
+    }
+    
     public List<Book> filterBooks(String title, String author, String category, Integer year) {
         return searchWithFilters(title, author, category, year);
     }
     
+    public List<Book> filterBooks(String title, String author, String category, Integer fromYear, Integer toYear) {
+        return searchWithFilters(title, author, category, fromYear, toYear);
+    }
+    
     public boolean storeData() {
         return saveMyLibrary();
     }
@@ -0,0 +1,225 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Timings and counters kept by one LibraryManager. Every operation records
+// its latency in a LatencyHistogram; failures, result sizes, bytes moved
+// and how often the indexes could answer a search are counted beside them.
+// Nothing here takes a lock, so recording costs a System.nanoTime() call
+// and a few atomic adds.
+//
+// The same numbers are readable as MXBeans under "bookmanager:*" once
+// registerMBeans has run, and as text from report.
+public final class LibraryMetrics implements LibraryMetricsMXBean {
+    public enum Operation { ADD, UPDATE, REMOVE, BATCH, LOOKUP, SEARCH, LOAD, SAVE }
+    
+    private final Map<Operation, OperationStats> operations = new EnumMap<>(Operation.class);
+    private final LatencyHistogram resultSizes = new LatencyHistogram();
+    private final LongAdder lookupHits = new LongAdder();
+    private final LongAdder lookupMisses = new LongAdder();
+    private final LongAdder indexedSearches = new LongAdder();
+    private final LongAdder scannedSearches = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private volatile String lastError;
+    
+    public LibraryMetrics() {
+        for (Operation operation : Operation.values()) {
+            operations.put(operation, new OperationStats());
+        }
+    }
+    
+    // Records an operation that began at startNanos, a System.nanoTime().
+    public void timed(Operation operation, long startNanos) {
+        operations.get(operation).latency.record(System.nanoTime() - startNanos);
+    }
+    
+    // Failures are timed too; the message is kept as the last error.
+    public void failed(Operation operation, long startNanos, String message) {
+        OperationStats stats = operations.get(operation);
+        stats.latency.record(System.nanoTime() - startNanos);
+        stats.failures.increment();
+        lastError = operation.name().toLowerCase() + ": " + message;
+    }
+    
+    public void lookedUp(boolean found) {
+        (found ? lookupHits : lookupMisses).increment();
+    }
+    
+    public void searched(boolean indexed) {
+        (indexed ? indexedSearches : scannedSearches).increment();
+    }
+    
+    public void found(int books) {
+        resultSizes.record(books);
+    }
+    
+    public void read(long bytes) {
+        bytesRead.add(bytes);
+    }
+    
+    public void wrote(long bytes) {
+        bytesWritten.add(bytes);
+    }
+    
+    public OperationMetricsMXBean operation(Operation operation) {
+        return operations.get(operation);
+    }
+    
+    @Override
+    public long getLookupHits() {
+        return lookupHits.sum();
+    }
+    
+    @Override
+    public long getLookupMisses() {
+        return lookupMisses.sum();
+    }
+    
+    @Override
+    public long getIndexedSearches() {
+        return indexedSearches.sum();
+    }
+    
+    @Override
+    public long getScannedSearches() {
+        return scannedSearches.sum();
+    }
+    
+    @Override
+    public double getIndexHitRate() {
+        long indexed = indexedSearches.sum();
+        long all = indexed + scannedSearches.sum();
+        return all == 0 ? 0 : (double) indexed / all;
+    }
+    
+    @Override
+    public long getResultSizeP50() {
+        return resultSizes.snapshot().percentile(50);
+    }
+    
+    @Override
+    public long getResultSizeP99() {
+        return resultSizes.snapshot().percentile(99);
+    }
+    
+    @Override
+    public long getResultSizeMax() {
+        return resultSizes.snapshot().max();
+    }
+    
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+    
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+    
+    @Override
+    public String getLastError() {
+        return lastError;
+    }
+    
+    @Override
+    public void reset() {
+        for (OperationStats stats : operations.values()) {
+            stats.latency.reset();
+            stats.failures.reset();
+        }
+        resultSizes.reset();
+        lookupHits.reset();
+        lookupMisses.reset();
+        indexedSearches.reset();
+        scannedSearches.reset();
+        bytesRead.reset();
+        bytesWritten.reset();
+        lastError = null;
+    }
+    
+    // Registers "bookmanager:type=Library" and one
+    // "bookmanager:type=Operation,name=<operation>" per operation with the
+    // platform MBean server. Only one manager per JVM can be registered.
+    public void registerMBeans() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, new ObjectName("bookmanager:type=Library"));
+        for (Map.Entry<Operation, OperationStats> entry : operations.entrySet()) {
+            String name = entry.getKey().name().toLowerCase();
+            server.registerMBean(entry.getValue(), new ObjectName("bookmanager:type=Operation,name=" + name));
+        }
+    }
+    
+    // Latencies in microseconds, one line per operation that has run.
+    public String report() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "%-8s %9s %8s %10s %10s %10s %10s%n",
+                                  "", "count", "failed", "mean us", "p50 us", "p99 us", "max us"));
+        for (Map.Entry<Operation, OperationStats> entry : operations.entrySet()) {
+            LatencyHistogram.Snapshot latency = entry.getValue().latency.snapshot();
+            if (latency.count() == 0) continue;
+            text.append(String.format(Locale.ROOT, "%-8s %9d %8d %10.1f %10.1f %10.1f %10.1f%n",
+                                      entry.getKey().name().toLowerCase(), latency.count(),
+                                      entry.getValue().failures.sum(), latency.mean() / 1000,
+                                      latency.percentile(50) / 1000.0, latency.percentile(99) / 1000.0,
+                                      latency.max() / 1000.0));
+        }
+        LatencyHistogram.Snapshot sizes = resultSizes.snapshot();
+        text.append(String.format(Locale.ROOT, "Lookups: %d found, %d missed%n", getLookupHits(), getLookupMisses()));
+        text.append(String.format(Locale.ROOT, "Searches: %d by index, %d by scan (%.0f%% index hits)%n",
+                                  getIndexedSearches(), getScannedSearches(), getIndexHitRate() * 100));
+        text.append(String.format(Locale.ROOT, "Result sizes: median %d, p99 %d, max %d%n",
+                                  sizes.percentile(50), sizes.percentile(99), sizes.max()));
+        text.append(String.format(Locale.ROOT, "Bytes read %d, written %d%n", getBytesRead(), getBytesWritten()));
+        if (lastError != null) {
+            text.append("Last error: ").append(lastError).append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+    
+    private static final class OperationStats implements OperationMetricsMXBean {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder failures = new LongAdder();
+        
+        @Override
+        public long getCount() {
+            return latency.snapshot().count();
+        }
+        
+        @Override
+        public long getFailures() {
+            return failures.sum();
+        }
+        
+        @Override
+        public double getMeanMicros() {
+            return latency.snapshot().mean() / 1000;
+        }
+        
+        @Override
+        public double getP50Micros() {
+            return latency.snapshot().percentile(50) / 1000.0;
+        }
+        
+        @Override
+        public double getP99Micros() {
+            return latency.snapshot().percentile(99) / 1000.0;
+        }
+        
+        @Override
+        public double getP999Micros() {
+            return latency.snapshot().percentile(99.9) / 1000.0;
+        }
+        
+        @Override
+        public double getMaxMicros() {
+            return latency.snapshot().max() / 1000.0;
+        }
+    }
+}
\ No newline at end of file
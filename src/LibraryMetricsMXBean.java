@@ -0,0 +1,27 @@
+// The collection-wide numbers of LibraryMetrics, as JMX shows them.
+public interface LibraryMetricsMXBean {
+    long getLookupHits();
+    
+    long getLookupMisses();
+    
+    long getIndexedSearches();
+    
+    long getScannedSearches();
+    
+    // Share of searches the indexes narrowed down, from 0 to 1.
+    double getIndexHitRate();
+    
+    long getResultSizeP50();
+    
+    long getResultSizeP99();
+    
+    long getResultSizeMax();
+    
+    long getBytesRead();
+    
+    long getBytesWritten();
+    
+    String getLastError();
+    
+    void reset();
+}
\ No newline at end of file
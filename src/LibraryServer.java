@@ -0,0 +1,448 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves one LibraryManager over HTTP on the loopback interface, so several
+// clients can share a catalogue without the GUI. The manager does its own
+// locking, so requests are handled side by side, each on a thread of its
+// own: a virtual thread where the JDK has them (21 and later), otherwise one
+// from a fixed pool. Connections are kept alive between requests, and
+// requests pipelined on one connection are answered in order. The bodies of
+// POST /books and POST /lookup hold any number of books or keys, one JSON
+// object per line, so a client can send a whole batch in one round trip.
+//
+//   GET    /books?title=&author=&category=&from=&to=&offset=&limit=
+//   GET    /find?q=&offset=&limit=
+//   GET    /book?title=&author=&year=     one book; with only a title, all of that name
+//   POST   /lookup                        a {"title","author","year"} key per line
+//   POST   /books                         books to add, one per line
+//   POST   /changes[?allOrNothing=true]   a change per line, made as one batch
+//   PUT    /book?title=&author=&year=     body: the book as it should be
+//   DELETE /book?title=&author=&year=
+//   GET    /export?format=csv|jsonl|store
+//   POST   /save
+//   GET    /stats
+//
+// Books go both ways as JSON Lines, in the format BookImporter reads and
+// JSONL exports write. Batches answer one line per line sent, in order.
+//
+// A change is a book with an "op" of add, update, remove or stock. An update
+// holds the whole book as it should be, with oldTitle, oldAuthor or oldYear
+// where the book it replaces differs; stock sets inStock, true if left out.
+public class LibraryServer {
+    public static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int BACKLOG = 4096;
+    private static final int MAX_BODY_BYTES = 16 << 20;
+    private static final String JSON_LINES = "application/jsonl; charset=utf-8";
+    private static final String TEXT = "text/plain; charset=utf-8";
+    private static final Set<String> PATHS = Set.of("/books", "/find", "/book", "/lookup", "/changes", "/export",
+                                                    "/save", "/stats");
+    
+    private final LibraryManager manager;
+    private final int port;
+    private HttpServer server;
+    private ExecutorService executor;
+    
+    public LibraryServer(LibraryManager manager, int port) {
+        this.manager = manager;
+        this.port = port;
+    }
+    
+    public synchronized void start() throws IOException {
+        if (server != null) return;
+        // The JDK server closes a kept-alive connection once 200 others are
+        // idle, which would have most clients of a busy server reconnecting,
+        // and leaves Nagle's algorithm on, which holds a small answer back
+        // until the client's delayed ACK (about 40 ms). Both settings are
+        // only read when the first server is created.
+        setIfAbsent("sun.net.httpserver.maxIdleConnections", Integer.toString(BACKLOG * 4));
+        setIfAbsent("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        server.createContext("/", this::handle);
+        executor = newExecutor();
+        server.setExecutor(executor);
+        server.start();
+    }
+    
+    private static void setIfAbsent(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+    
+    // Lets requests in progress finish for up to a second.
+    public synchronized void stop() {
+        if (server == null) return;
+        server.stop(1);
+        executor.shutdown();
+        server = null;
+    }
+    
+    // The port actually bound, which differs from the one asked for when
+    // that was 0.
+    public synchronized int port() {
+        return server == null ? port : server.getAddress().getPort();
+    }
+    
+    // Requests are short and mostly wait on the manager's lock, so on a JDK
+    // without virtual threads a modest pool keeps up; the size comes from the
+    // bookmanager.server.threads system property.
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threads = Integer.getInteger("bookmanager.server.threads",
+                                             Math.max(16, Runtime.getRuntime().availableProcessors() * 4));
+            AtomicInteger created = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, task -> {
+                Thread thread = new Thread(task, "library-server-" + created.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    
+    // A request that fails before its answer is under way is answered with
+    // 400 when it was the request's fault and 500 otherwise, so the client
+    // never waits on an exchange nobody will answer.
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> parameters = parameters(exchange.getRequestURI());
+            switch (exchange.getRequestMethod() + " " + path) {
+                case "GET /books" -> search(exchange, parameters);
+                case "GET /find" -> find(exchange, parameters);
+                case "GET /book" -> lookup(exchange, parameters);
+                case "POST /lookup" -> lookupBatch(exchange);
+                case "POST /books" -> addBatch(exchange);
+                case "POST /changes" -> changeBatch(exchange, parameters);
+                case "PUT /book" -> update(exchange, parameters);
+                case "DELETE /book" -> remove(exchange, parameters);
+                case "GET /export" -> export(exchange, parameters);
+                case "POST /save" -> save(exchange);
+                case "GET /stats" -> send(exchange, 200, TEXT, manager.metrics().report()
+                                          + "Cache: " + manager.queryCache() + "\n"
+                                          + "Strings: " + StringPool.stats() + "\n");
+                default -> send(exchange, PATHS.contains(path) ? 405 : 404, TEXT,
+                                exchange.getRequestMethod() + " " + path + " isn't served here\n");
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Couldn't handle " + exchange.getRequestMethod() + " "
+                               + exchange.getRequestURI() + ": " + e);
+            sendError(exchange, 500, "Couldn't handle the request: " + e);
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    // Once the status line has gone out there is no changing it, and closing
+    // the exchange cuts the answer short instead.
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        if (exchange.getResponseCode() == -1) {
+            send(exchange, status, TEXT, message + "\n");
+        }
+    }
+    
+    private void search(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        Criterion criterion = LibraryManager.filtersOf(parameters.get("title"), parameters.get("author"),
+                                                       parameters.get("category"), year(parameters, "from"),
+                                                       year(parameters, "to"));
+        BookQuery query = BookQuery.where(criterion)
+                .offset(number(parameters, "offset", 0))
+                .limit(number(parameters, "limit", DEFAULT_LIMIT));
+        sendBooks(exchange, manager.query(query));
+    }
+    
+    private void find(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        List<Book> found = manager.findBooks(parameters.getOrDefault("q", ""));
+        int offset = number(parameters, "offset", 0);
+        int limit = number(parameters, "limit", DEFAULT_LIMIT);
+        int from = Math.min(offset, found.size());
+        sendBooks(exchange, found.subList(from, (int) Math.min(found.size(), (long) from + limit)));
+    }
+    
+    private void lookup(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        if (!parameters.containsKey("author") && !parameters.containsKey("year")) {
+            sendBooks(exchange, manager.locateBooksByTitle(required(parameters, "title")));
+            return;
+        }
+        Book key = keyOf(parameters);
+        Book found = manager.locateExactBook(key.getBookName(), key.getWriter(), key.getPublishDate());
+        if (found == null) {
+            send(exchange, 404, TEXT, "No such book\n");
+        } else {
+            sendBooks(exchange, List.of(found));
+        }
+    }
+    
+    // Answers with the book or null for every key, in order.
+    private void lookupBatch(HttpExchange exchange) throws IOException {
+        StringBuilder answer = new StringBuilder();
+        for (String line : bodyLines(exchange)) {
+            Book key;
+            try {
+                key = BookImporter.parseJson(line);
+            } catch (IllegalArgumentException e) {
+                writeStatus(answer, "invalid", e.getMessage());
+                continue;
+            }
+            Book found = manager.locateExactBook(key.getBookName(), key.getWriter(), key.getPublishDate());
+            if (found == null) {
+                answer.append("null\n");
+            } else {
+                BookExporter.writeJson(answer, found);
+            }
+        }
+        send(exchange, 200, JSON_LINES, answer);
+    }
+    
+    // Every valid book goes in under one write lock; each line is answered
+    // with added, duplicate or invalid.
+    private void addBatch(HttpExchange exchange) throws IOException {
+        List<String> lines = bodyLines(exchange);
+        Book[] books = new Book[lines.size()];
+        String[] problems = new String[lines.size()];
+        List<Book> valid = new ArrayList<>(lines.size());
+        for (int i = 0; i < books.length; i++) {
+            try {
+                books[i] = BookImporter.parseJson(lines.get(i));
+                valid.add(books[i]);
+            } catch (IllegalArgumentException e) {
+                problems[i] = e.getMessage();
+            }
+        }
+        
+        Set<Book> duplicates = Collections.newSetFromMap(new IdentityHashMap<>());
+        duplicates.addAll(manager.addBooksToCollection(valid));
+        StringBuilder answer = new StringBuilder();
+        for (int i = 0; i < books.length; i++) {
+            if (books[i] == null) {
+                writeStatus(answer, "invalid", problems[i]);
+            } else {
+                writeStatus(answer, duplicates.contains(books[i]) ? "duplicate" : "added", null);
+            }
+        }
+        send(exchange, 200, JSON_LINES, answer);
+    }
+    
+    // Lines that can't be read are answered as invalid; with allOrNothing
+    // they keep the rest from being made, as a failed change would.
+    private void changeBatch(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        boolean allOrNothing = Boolean.parseBoolean(parameters.get("allOrNothing"));
+        List<String> lines = bodyLines(exchange);
+        String[] problems = new String[lines.size()];
+        List<BookChange> changes = new ArrayList<>(lines.size());
+        for (int i = 0; i < problems.length; i++) {
+            try {
+                changes.add(changeOf(BookImporter.jsonObject(lines.get(i))));
+            } catch (IllegalArgumentException e) {
+                problems[i] = e.getMessage();
+            }
+        }
+        
+        List<BookChange.Outcome> outcomes;
+        if (allOrNothing && changes.size() < lines.size()) {
+            outcomes = Collections.nCopies(changes.size(), BookChange.Outcome.SKIPPED);
+        } else {
+            outcomes = manager.applyChanges(changes, allOrNothing);
+        }
+        StringBuilder answer = new StringBuilder();
+        int next = 0;
+        for (String problem : problems) {
+            if (problem != null) {
+                writeStatus(answer, "invalid", problem);
+            } else {
+                writeStatus(answer, outcomes.get(next++).name().toLowerCase(), null);
+            }
+        }
+        send(exchange, 200, JSON_LINES, answer);
+    }
+    
+    private static BookChange changeOf(Map<String, String> object) {
+        String op = object.get("op");
+        if (op == null) throw new IllegalArgumentException("op is required");
+        Book book = BookImporter.toBook(object);
+        switch (op) {
+            case "add":
+                return BookChange.add(book);
+            case "remove":
+                return BookChange.remove(book);
+            case "stock":
+                return BookChange.setInStock(book, book.isInStock());
+            case "update":
+                Map<String, String> old = new HashMap<>(object);
+                old.put("title", object.getOrDefault("oldTitle", book.getBookName()));
+                old.put("author", object.getOrDefault("oldAuthor", book.getWriter()));
+                old.put("year", object.getOrDefault("oldYear", Integer.toString(book.getPublishDate())));
+                return BookChange.update(BookImporter.toBook(old), book);
+            default:
+                throw new IllegalArgumentException("op must be add, update, remove or stock");
+        }
+    }
+    
+    // 409 when the changed book would clash with another one.
+    private void update(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        Book key = keyOf(parameters);
+        List<String> lines = bodyLines(exchange);
+        if (lines.size() != 1) {
+            throw new IllegalArgumentException("Send the changed book as one JSON object");
+        }
+        Book changed = BookImporter.parseJson(lines.get(0));
+        if (manager.updateExistingBook(key, changed)) {
+            sendBooks(exchange, List.of(changed));
+        } else if (manager.locateExactBook(key.getBookName(), key.getWriter(), key.getPublishDate()) == null) {
+            send(exchange, 404, TEXT, "No such book\n");
+        } else {
+            send(exchange, 409, TEXT, "Another book already has that title, author and year\n");
+        }
+    }
+    
+    private void remove(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        if (manager.removeBookFromCollection(keyOf(parameters))) {
+            send(exchange, 200, TEXT, "Removed\n");
+        } else {
+            send(exchange, 404, TEXT, "No such book\n");
+        }
+    }
+    
+    // Written from the shared snapshot, so a slow client holds up no one.
+    private void export(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        BookExporter.Format format = BookExporter.Format.of(parameters.getOrDefault("format", "jsonl"));
+        exchange.getResponseHeaders().set("Content-Type", switch (format) {
+            case CSV -> "text/csv; charset=utf-8";
+            case JSONL -> JSON_LINES;
+            case STORE -> "application/octet-stream";
+        });
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream body = exchange.getResponseBody()) {
+            BookExporter.export(manager.getAllMyBooks(), format, Channels.newChannel(body));
+        }
+    }
+    
+    private void save(HttpExchange exchange) throws IOException {
+        if (manager.saveMyLibrary()) {
+            send(exchange, 200, TEXT, "Saved\n");
+        } else {
+            send(exchange, 500, TEXT, "Couldn't save the collection\n");
+        }
+    }
+    
+    private static void sendBooks(HttpExchange exchange, List<Book> books) throws IOException {
+        StringBuilder answer = new StringBuilder(books.size() * 96);
+        for (Book book : books) {
+            BookExporter.writeJson(answer, book);
+        }
+        send(exchange, 200, JSON_LINES, answer);
+    }
+    
+    private static void writeStatus(StringBuilder answer, String status, String error) throws IOException {
+        answer.append("{\"status\":\"").append(status).append('"');
+        if (error != null) {
+            answer.append(",\"error\":");
+            BookExporter.writeJsonString(answer, error);
+        }
+        answer.append("}\n");
+    }
+    
+    // Always with a length, so the connection can carry the next request.
+    private static void send(HttpExchange exchange, int status, String contentType, CharSequence body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+    
+    private static List<String> bodyLines(HttpExchange exchange) throws IOException {
+        byte[] bytes;
+        try (InputStream in = exchange.getRequestBody()) {
+            bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+        }
+        if (bytes.length > MAX_BODY_BYTES) {
+            throw new IllegalArgumentException("Bodies are limited to " + MAX_BODY_BYTES + " bytes");
+        }
+        List<String> lines = new ArrayList<>();
+        for (String line : new String(bytes, StandardCharsets.UTF_8).split("\r?\n")) {
+            if (!line.isBlank()) lines.add(line);
+        }
+        return lines;
+    }
+    
+    private static Map<String, String> parameters(URI uri) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = uri.getRawQuery();
+        if (query == null) return parameters;
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                           URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+    
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+    
+    private static int number(Map<String, String> parameters, String name, int fallback) {
+        String value = parameters.get(name);
+        if (value == null || value.isBlank()) return fallback;
+        try {
+            int number = Integer.parseInt(value.trim());
+            if (number < 0) throw new IllegalArgumentException(name + " can't be negative");
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a number: " + value);
+        }
+    }
+    
+    private static Integer year(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.isBlank()) return null;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a year: " + value);
+        }
+    }
+    
+    // Only the title, author and year of a book identify it.
+    private static Book keyOf(Map<String, String> parameters) {
+        String year = required(parameters, "year");
+        try {
+            return new Book(required(parameters, "title"), required(parameters, "author"),
+                            Integer.parseInt(year.trim()), null);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("year is not a number: " + year);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,52 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Keeps the last search-as-you-type result so that narrowing a query only
+// rechecks the books that matched before. Every book matching a term also
+// matches any substring of it, so while the collection is unchanged (the
+// manager still hands out the same snapshot) a longer query can be answered
+// from the previous matches instead of the whole collection.
+public class LiveFilter {
+    private final LibraryManager manager;
+    private List<Book> lastBase;
+    private String lastLower;
+    private List<Book> lastResults;
+    
+    public LiveFilter(LibraryManager manager) {
+        this.manager = manager;
+    }
+    
+    public synchronized List<Book> apply(String query) {
+        List<Book> base = manager.getAllMyBooks();
+        if (query == null || query.trim().isEmpty()) {
+            remember(base, null, base);
+            return base;
+        }
+        
+        String lower = query.toLowerCase();
+        List<Book> results;
+        if (base == lastBase && lastLower != null && lower.contains(lastLower)) {
+            results = lower.equals(lastLower) ? lastResults : refine(lastResults, lower, query);
+        } else {
+            results = manager.findBooks(query);
+        }
+        remember(base, lower, results);
+        return results;
+    }
+    
+    private static List<Book> refine(List<Book> previous, String lower, String query) {
+        List<Book> narrowed = new ArrayList<>();
+        for (Book book : previous) {
+            if (book.matchesLowered(lower, query)) {
+                narrowed.add(book);
+            }
+        }
+        return narrowed;
+    }
+    
+    private void remember(List<Book> base, String lower, List<Book> results) {
+        lastBase = base;
+        lastLower = lower;
+        lastResults = results;
+    }
+}
\ No newline at end of file
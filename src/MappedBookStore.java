@@ -0,0 +1,345 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+// Layout of a mapped store's books (version 2):
+//
+//   "BKST" version:u8 pad:3 count:i32 dictCount:i32
+//   dictOffsets: (dictCount + 1) x i64          -- writers and categories
+//   dictBytes
+//   records: count x { titleOffset:i64 titleLength:i32 writer:i32 category:i32 year:i32 }
+//   inStock bits, one per book, low bit first
+//   titleBytes
+//
+// Every record has the same width, so book i is found without reading the
+// ones before it and a Book is only built when something asks for it.
+//
+// A save doesn't overwrite the file that is mapped: the books go to a new
+// books_collection.store.<generation>, and books_collection.store becomes
+// a small link to it (version 3):
+//
+//   "BKST" version:u8 pad:3 generation:i64 journalGeneration:i64
+//
+// journalGeneration is as in BookStoreFormat.
+// Windows won't replace or delete a file while it is mapped, so older
+// generations are deleted once they can be, at the latest on a later save.
+// The books are mapped in segments of 1 GB, as one buffer can't reach past
+// 2 GB, so a store can be far larger than the heap.
+public final class MappedBookStore {
+    public static final int VERSION = 2;
+    public static final int LINK_VERSION = 3;
+    private static final int HEADER_SIZE = 16;
+    private static final int LINK_SIZE = 24;
+    private static final int RECORD_SIZE = 24;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int PROGRESS_EVERY = 4096;
+    private static final int SEGMENT_SHIFT = 30;
+    
+    private MappedBookStore() {
+    }
+    
+    public static long write(Path file, List<Book> books) throws IOException {
+        return write(file, books, 0, TaskProgress.NONE);
+    }
+    
+    // Returns the size of the data file written.
+    public static long write(Path file, List<Book> books, long journalGeneration, TaskProgress progress) throws IOException {
+        long generation = nextGeneration(file);
+        Path data = generationFile(file, generation);
+        try {
+            writeTo(data, books, progress);
+            writeLink(file, generation, journalGeneration);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(data);
+            throw e;
+        }
+        deleteGenerations(file, generation);
+        return Files.size(data);
+    }
+    
+    // Deletes every generation of file but current; one that is still
+    // mapped on Windows stays until a later call.
+    public static void deleteGenerations(Path file, long current) {
+        for (long generation : generations(file)) {
+            if (generation == current) continue;
+            try {
+                Files.deleteIfExists(generationFile(file, generation));
+            } catch (IOException e) {
+                // Still mapped; tried again next time.
+            }
+        }
+    }
+    
+    private static Path generationFile(Path file, long generation) {
+        return file.resolveSibling(file.getFileName() + "." + generation);
+    }
+    
+    private static List<Long> generations(Path file) {
+        List<Long> generations = new ArrayList<>();
+        Path directory = file.toAbsolutePath().getParent();
+        String prefix = file.getFileName() + ".";
+        try (DirectoryStream<Path> siblings = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path sibling : siblings) {
+                String suffix = sibling.getFileName().toString().substring(prefix.length());
+                if (!suffix.isEmpty() && suffix.length() < 19 && suffix.chars().allMatch(Character::isDigit)) {
+                    generations.add(Long.parseLong(suffix));
+                }
+            }
+        } catch (IOException e) {
+            // An unreadable directory just has no generations to offer.
+        }
+        return generations;
+    }
+    
+    private static long nextGeneration(Path file) throws IOException {
+        long latest = Files.exists(file) && BookStoreFormat.versionOf(file) == LINK_VERSION ? readLink(file).getLong(8) : 0;
+        for (long generation : generations(file)) {
+            latest = Math.max(latest, generation);
+        }
+        return latest + 1;
+    }
+    
+    private static void writeLink(Path file, long generation, long journalGeneration) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        ByteBuffer link = ByteBuffer.allocate(LINK_SIZE);
+        link.put(new byte[]{'B', 'K', 'S', 'T', LINK_VERSION, 0, 0, 0}).putLong(generation).putLong(journalGeneration);
+        try {
+            Files.write(temp, link.array());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+    
+    static long journalGenerationOf(Path file) throws IOException {
+        return readLink(file).getLong(16);
+    }
+    
+    private static ByteBuffer readLink(Path file) throws IOException {
+        byte[] link = Files.readAllBytes(file);
+        if (link.length < LINK_SIZE) {
+            throw new IOException("Corrupt collection file: link is " + link.length + " bytes");
+        }
+        return ByteBuffer.wrap(link);
+    }
+    
+    private static void writeTo(Path data, List<Book> books, TaskProgress progress) throws IOException {
+        Map<String, Integer> dictIds = new HashMap<>();
+        List<byte[]> dict = new ArrayList<>();
+        for (Book book : books) {
+            intern(book.getWriter(), dictIds, dict);
+            intern(book.getCategory(), dictIds, dict);
+        }
+        
+        int count = books.size();
+        long dictBytes = 0;
+        for (byte[] value : dict) {
+            dictBytes += value.length;
+        }
+        long dictOffsetsPos = HEADER_SIZE;
+        long dictDataPos = dictOffsetsPos + 8L * (dict.size() + 1);
+        long recordsPos = dictDataPos + dictBytes;
+        long stockPos = recordsPos + (long) RECORD_SIZE * count;
+        long titlesPos = stockPos + (count + 7) / 8;
+        
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(data), BUFFER_SIZE))) {
+            out.write(new byte[]{'B', 'K', 'S', 'T', VERSION, 0, 0, 0});
+            out.writeInt(count);
+            out.writeInt(dict.size());
+            
+            long offset = dictDataPos;
+            for (byte[] value : dict) {
+                out.writeLong(offset);
+                offset += value.length;
+            }
+            out.writeLong(offset);
+            for (byte[] value : dict) {
+                out.write(value);
+            }
+            
+            long titleOffset = titlesPos;
+            int written = 0;
+            for (Book book : books) {
+                int titleLength = book.getBookName() == null ? -1 : book.getBookName().getBytes(StandardCharsets.UTF_8).length;
+                out.writeLong(titleOffset);
+                out.writeInt(titleLength);
+                out.writeInt(idOf(book.getWriter(), dictIds));
+                out.writeInt(idOf(book.getCategory(), dictIds));
+                out.writeInt(book.getPublishDate());
+                titleOffset += Math.max(0, titleLength);
+                if (++written % PROGRESS_EVERY == 0) {
+                    progress.checkpoint(written, count);
+                }
+            }
+            
+            int bits = 0;
+            int filled = 0;
+            for (Book book : books) {
+                if (book.isInStock()) bits |= 1 << filled;
+                if (++filled == 8) {
+                    out.write(bits);
+                    bits = 0;
+                    filled = 0;
+                }
+            }
+            if (filled > 0) out.write(bits);
+            
+            for (Book book : books) {
+                if (book.getBookName() != null) {
+                    out.write(book.getBookName().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+    
+    // Opens a link or, as saved before there were generations, the data
+    // file itself.
+    public static List<Book> open(Path file) throws IOException {
+        Path data = BookStoreFormat.versionOf(file) == LINK_VERSION ? generationFile(file, readLink(file).getLong(8)) : file;
+        try (FileChannel channel = FileChannel.open(data, StandardOpenOption.READ)) {
+            return new MappedBooks(new MappedFile(channel, SEGMENT_SHIFT));
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt collection file: " + e, e);
+        }
+    }
+    
+    // Read-only view over the mapping. Each get builds a fresh Book; the
+    // dictionary strings are decoded once and shared between books.
+    static final class MappedBooks extends AbstractList<Book> implements RandomAccess {
+        private final MappedFile data;
+        private final int count;
+        private final String[] dict;
+        private final long recordsPos;
+        private final long stockPos;
+        
+        MappedBooks(MappedFile data) throws IOException {
+            this.data = data;
+            byte[] magic = new byte[5];
+            data.get(0, magic);
+            if (magic[0] != 'B' || magic[1] != 'K' || magic[2] != 'S' || magic[3] != 'T' || magic[4] != VERSION) {
+                throw new IOException("Not a mapped collection file");
+            }
+            count = data.getInt(8);
+            dict = new String[data.getInt(12) + 1];
+            recordsPos = data.getLong(HEADER_SIZE + 8L * (dict.length - 1));
+            stockPos = recordsPos + (long) RECORD_SIZE * count;
+        }
+        
+        @Override
+        public Book get(int index) {
+            if (index < 0 || index >= count) throw new IndexOutOfBoundsException(index);
+            long record = recordsPos + (long) RECORD_SIZE * index;
+            int titleLength = data.getInt(record + 8);
+            String title = titleLength < 0 ? null : decode(data.getLong(record), titleLength);
+            
+            Book book = new Book(title, dictValue(data.getInt(record + 12)),
+                                 data.getInt(record + 20), dictValue(data.getInt(record + 16)));
+            book.setInStock((data.get(stockPos + index / 8) & (1 << (index % 8))) != 0);
+            return book;
+        }
+        
+        @Override
+        public int size() {
+            return count;
+        }
+        
+        private String dictValue(int id) {
+            if (id == 0) return null;
+            String value = dict[id];
+            if (value == null) {
+                long entry = HEADER_SIZE + 8L * (id - 1);
+                long start = data.getLong(entry);
+                value = StringPool.canonical(decode(start, (int) (data.getLong(entry + 8) - start)));
+                dict[id] = value;
+            }
+            return value;
+        }
+        
+        private String decode(long position, int length) {
+            byte[] bytes = new byte[length];
+            data.get(position, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+    
+    // A file mapped in segments of 2^shift bytes, read by absolute position.
+    // A value that straddles two segments is put together byte by byte.
+    static final class MappedFile {
+        private final ByteBuffer[] segments;
+        private final int shift;
+        private final long mask;
+        
+        MappedFile(FileChannel channel, int shift) throws IOException {
+            this.shift = shift;
+            mask = (1L << shift) - 1;
+            long size = channel.size();
+            segments = new ByteBuffer[(int) ((size + mask) >>> shift)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << shift;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(mask + 1, size - start));
+            }
+        }
+        
+        byte get(long position) {
+            return segments[(int) (position >>> shift)].get((int) (position & mask));
+        }
+        
+        int getInt(long position) {
+            ByteBuffer segment = segments[(int) (position >>> shift)];
+            int offset = (int) (position & mask);
+            return offset + 4 <= segment.limit() ? segment.getInt(offset) : (int) straddling(position, 4);
+        }
+        
+        long getLong(long position) {
+            ByteBuffer segment = segments[(int) (position >>> shift)];
+            int offset = (int) (position & mask);
+            return offset + 8 <= segment.limit() ? segment.getLong(offset) : straddling(position, 8);
+        }
+        
+        void get(long position, byte[] bytes) {
+            int done = 0;
+            while (done < bytes.length) {
+                ByteBuffer segment = segments[(int) ((position + done) >>> shift)];
+                int offset = (int) ((position + done) & mask);
+                int length = Math.min(bytes.length - done, segment.limit() - offset);
+                segment.get(offset, bytes, done, length);
+                done += length;
+            }
+        }
+        
+        private long straddling(long position, int width) {
+            long value = 0;
+            for (int i = 0; i < width; i++) {
+                value = (value << 8) | (get(position + i) & 0xFF);
+            }
+            return value;
+        }
+    }
+    
+    private static void intern(String value, Map<String, Integer> ids, List<byte[]> dict) {
+        if (value != null && !ids.containsKey(value)) {
+            dict.add(value.getBytes(StandardCharsets.UTF_8));
+            ids.put(value, dict.size());
+        }
+    }
+    
+    private static int idOf(String value, Map<String, Integer> ids) {
+        return value == null ? 0 : ids.get(value);
+    }
+}
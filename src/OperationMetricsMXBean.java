@@ -0,0 +1,16 @@
+// Latency and failures of one LibraryManager operation, as JMX shows them.
+public interface OperationMetricsMXBean {
+    long getCount();
+    
+    long getFailures();
+    
+    double getMeanMicros();
+    
+    double getP50Micros();
+    
+    double getP99Micros();
+    
+    double getP999Micros();
+    
+    double getMaxMicros();
+}
\ No newline at end of file
@@ -0,0 +1,109 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+// Runs the manager's full scans. A scan checks every slot below an end and
+// hands over the books that match, in slot order. Small collections are
+// scanned in a plain loop; from the threshold up the slots are cut into
+// chunks that run on the common fork-join pool, and each chunk's matches are
+// handed over in turn, so callers still see them in collection order.
+//
+// The threshold comes from the bookmanager.scan.parallelThreshold system
+// property when a manager is created; the benchmarks use it to compare both
+// paths. The caller holds the manager's read lock for the whole scan, which
+// keeps the slots still while the workers read them; so a scan doesn't
+// return, even when it stops early or fails, until every chunk it started
+// has stopped reading.
+public class ParallelScan {
+    static final int DEFAULT_THRESHOLD = 1 << 17;
+    private static final int CHUNK_SLOTS = 1 << 14;
+    private static final int CHUNKS_PER_WORKER = 4;
+    
+    private final int threshold;
+    
+    public ParallelScan() {
+        this(Integer.getInteger("bookmanager.scan.parallelThreshold", DEFAULT_THRESHOLD));
+    }
+    
+    public ParallelScan(int threshold) {
+        this.threshold = threshold;
+    }
+    
+    // A matcher returns the book in a slot if it matches and null otherwise.
+    // Each chunk gets its own matcher, so matchers may keep state.
+    public void forEachMatch(int end, Supplier<IntFunction<Book>> matchers, TaskProgress progress,
+                             Consumer<Book> matches) {
+        forEachMatch(end, matchers, progress, () -> false, matches);
+    }
+    
+    // Stops as soon as enough is true after a match has been handed over;
+    // chunks still running then give up at their next slot.
+    public void forEachMatch(int end, Supplier<IntFunction<Book>> matchers, TaskProgress progress,
+                             BooleanSupplier enough, Consumer<Book> matches) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        if (end < threshold || pool.getParallelism() < 2) {
+            scanSequentially(end, matchers.get(), progress, enough, matches);
+            return;
+        }
+        
+        // Only a few chunks per worker are in flight at a time, so a scan
+        // with many matches doesn't hold all of them before handing any over.
+        int inFlight = pool.getParallelism() * CHUNKS_PER_WORKER;
+        ArrayDeque<ForkJoinTask<List<Book>>> running = new ArrayDeque<>();
+        AtomicBoolean stopped = new AtomicBoolean();
+        int nextStart = 0;
+        try {
+            while (nextStart < end || !running.isEmpty()) {
+                while (nextStart < end && running.size() < inFlight) {
+                    int start = nextStart;
+                    int stop = (int) Math.min(end, (long) start + CHUNK_SLOTS);
+                    running.add(pool.submit(() -> scanChunk(start, stop, matchers.get(), stopped)));
+                    nextStart = stop;
+                }
+                List<Book> chunk = running.poll().join();
+                for (Book book : chunk) {
+                    matches.accept(book);
+                    if (enough.getAsBoolean()) return;
+                }
+                progress.checkpoint(Math.min(end, nextStart - (long) running.size() * CHUNK_SLOTS), end);
+            }
+        } finally {
+            stopped.set(true);
+            for (ForkJoinTask<List<Book>> task : running) {
+                task.quietlyJoin();
+            }
+        }
+    }
+    
+    private static void scanSequentially(int end, IntFunction<Book> matcher, TaskProgress progress,
+                                         BooleanSupplier enough, Consumer<Book> matches) {
+        for (int slot = 0; slot < end; slot++) {
+            Book book = matcher.apply(slot);
+            if (book != null) {
+                matches.accept(book);
+                if (enough.getAsBoolean()) return;
+            }
+            if ((slot + 1) % CHUNK_SLOTS == 0) {
+                progress.checkpoint(slot + 1, end);
+            }
+        }
+    }
+    
+    private static List<Book> scanChunk(int start, int stop, IntFunction<Book> matcher, AtomicBoolean stopped) {
+        List<Book> found = new ArrayList<>();
+        for (int slot = start; slot < stop && !stopped.get(); slot++) {
+            Book book = matcher.apply(slot);
+            if (book != null) {
+                found.add(book);
+            }
+        }
+        return found;
+    }
+}
\ No newline at end of file
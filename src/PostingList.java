@@ -0,0 +1,60 @@
+import java.util.Arrays;
+
+// Sorted set of shelf slots. Slots are handed out in increasing order, so
+// most additions are appends; removals and reused slots fall back to a
+// binary search.
+public class PostingList {
+    private int[] slots;
+    private int size;
+    
+    public PostingList() {
+        slots = new int[4];
+    }
+    
+    public void add(int slot) {
+        if (size > 0 && slots[size - 1] >= slot) {
+            int at = Arrays.binarySearch(slots, 0, size, slot);
+            if (at >= 0) return;
+            insertAt(-at - 1, slot);
+            return;
+        }
+        insertAt(size, slot);
+    }
+    
+    public boolean remove(int slot) {
+        int at = Arrays.binarySearch(slots, 0, size, slot);
+        if (at < 0) return false;
+        System.arraycopy(slots, at + 1, slots, at, size - at - 1);
+        size--;
+        return true;
+    }
+    
+    public boolean contains(int slot) {
+        return Arrays.binarySearch(slots, 0, size, slot) >= 0;
+    }
+    
+    public int get(int index) {
+        return slots[index];
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    public int[] toArray() {
+        return Arrays.copyOf(slots, size);
+    }
+    
+    private void insertAt(int at, int slot) {
+        if (size == slots.length) {
+            slots = Arrays.copyOf(slots, size * 2);
+        }
+        System.arraycopy(slots, at, slots, at + 1, size - at);
+        slots[at] = slot;
+        size++;
+    }
+}
@@ -0,0 +1,13 @@
+import javax.swing.SwingWorker;
+
+// SwingWorker that can be handed to LibraryManager as its TaskProgress:
+// progress goes to the worker's bound "progress" property and a cancelled
+// worker makes the manager stop at its next checkpoint.
+public abstract class ProgressWorker<T, V> extends SwingWorker<T, V> implements TaskProgress {
+    @Override
+    public void update(long done, long total) {
+        if (total > 0) {
+            setProgress((int) Math.min(100, done * 100 / total));
+        }
+    }
+}
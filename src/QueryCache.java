@@ -0,0 +1,259 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+
+// Results of repeated searches, keyed by the normalized query: a BookQuery,
+// or the lower-cased term of a findBooks call. The limit is on the books
+// held across all results, and on the number of results. The least recently
+// used result goes first, but a new result only pushes it out if its query
+// has been asked for more often lately (TinyLFU admission, with the counts
+// kept in a small count-min sketch that halves itself now and then), so a
+// burst of one-off searches can't flush the ones people keep running.
+//
+// Each result remembers which books it depends on: a changed book can only
+// change the results whose query matches it before or after the change, so
+// only those are dropped. The manager fills the cache under its read lock
+// and invalidates it under its write lock, so no result computed before a
+// change can be put back after it.
+//
+// The limit comes from the bookmanager.cache.maxBooks system property when
+// a manager is created; 0 turns caching off.
+public final class QueryCache implements QueryCacheMXBean {
+    static final int DEFAULT_MAX_BOOKS = 1 << 18;
+    private static final int MAX_ENTRIES = 1024;
+    // No single result may take more than this share of the limit.
+    private static final int ENTRY_SHARE = 8;
+    // A batch change checks at most this many book/result pairs before
+    // dropping everything instead.
+    private static final long BATCH_CHECKS = 1L << 20;
+    
+    private final int maxBooks;
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch frequencies = new FrequencySketch(MAX_ENTRIES * 4);
+    private long heldBooks;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+    private long invalidations;
+    
+    public QueryCache() {
+        this(Integer.getInteger("bookmanager.cache.maxBooks", DEFAULT_MAX_BOOKS));
+    }
+    
+    public QueryCache(int maxBooks) {
+        this.maxBooks = Math.max(0, maxBooks);
+    }
+    
+    // The cached result, or null on a miss. Results are unmodifiable.
+    public synchronized List<Book> get(Object key) {
+        if (maxBooks == 0) return null;
+        frequencies.increment(key.hashCode());
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.books;
+    }
+    
+    // The most books a result can have and still be cached.
+    public int largestResult() {
+        return maxBooks / ENTRY_SHARE - 1;
+    }
+    
+    // dependsOn must be true for every book whose change could alter the
+    // result; the query's own test is exactly that. Returns the result as
+    // it is shared from now on.
+    public synchronized List<Book> put(Object key, List<Book> books, Predicate<Book> dependsOn) {
+        List<Book> shared = Collections.unmodifiableList(books);
+        long weight = books.size() + 1L;
+        if (maxBooks == 0 || weight > maxBooks / ENTRY_SHARE) return shared;
+        
+        Entry replaced = entries.remove(key);
+        if (replaced != null) heldBooks -= replaced.weight;
+        if (!makeRoom(key, weight)) {
+            rejections++;
+            return shared;
+        }
+        entries.put(key, new Entry(shared, dependsOn, weight));
+        heldBooks += weight;
+        return shared;
+    }
+    
+    // The victim is the least recently used result; the newcomer only gets
+    // in if its query is the more frequent of the two.
+    private boolean makeRoom(Object key, long weight) {
+        if (entries.size() < MAX_ENTRIES && heldBooks + weight <= maxBooks) return true;
+        Map.Entry<Object, Entry> victim = entries.entrySet().iterator().next();
+        if (frequencies.estimate(key.hashCode()) <= frequencies.estimate(victim.getKey().hashCode())) {
+            return false;
+        }
+        Iterator<Entry> oldest = entries.values().iterator();
+        while (oldest.hasNext() && (entries.size() >= MAX_ENTRIES || heldBooks + weight > maxBooks)) {
+            heldBooks -= oldest.next().weight;
+            oldest.remove();
+            evictions++;
+        }
+        return true;
+    }
+    
+    // Drops the results a change to this book could have altered. Call it
+    // with the book as it was and as it is now.
+    public synchronized void invalidate(Book book) {
+        Iterator<Entry> each = entries.values().iterator();
+        while (each.hasNext()) {
+            Entry entry = each.next();
+            if (entry.dependsOn.test(book)) {
+                heldBooks -= entry.weight;
+                each.remove();
+                invalidations++;
+            }
+        }
+    }
+    
+    public synchronized void invalidate(List<Book> books) {
+        if ((long) books.size() * entries.size() > BATCH_CHECKS) {
+            invalidations += entries.size();
+            clear();
+            return;
+        }
+        for (Book book : books) {
+            if (entries.isEmpty()) return;
+            invalidate(book);
+        }
+    }
+    
+    public void registerMBean() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("bookmanager:type=QueryCache"));
+    }
+    
+    @Override
+    public synchronized void clear() {
+        entries.clear();
+        heldBooks = 0;
+    }
+    
+    @Override
+    public synchronized long getHits() {
+        return hits;
+    }
+    
+    @Override
+    public synchronized long getMisses() {
+        return misses;
+    }
+    
+    @Override
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+    
+    @Override
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+    
+    @Override
+    public synchronized long getRejections() {
+        return rejections;
+    }
+    
+    @Override
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+    
+    @Override
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+    
+    @Override
+    public synchronized long getHeldBooks() {
+        return heldBooks;
+    }
+    
+    @Override
+    public int getMaxBooks() {
+        return maxBooks;
+    }
+    
+    @Override
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        rejections = 0;
+        invalidations = 0;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "%d results holding %d of %d books; %d hits, %d misses (%.0f%%), "
+                             + "%d evicted, %d not admitted, %d invalidated",
+                             entries.size(), heldBooks, maxBooks, hits, misses, getHitRate() * 100,
+                             evictions, rejections, invalidations);
+    }
+    
+    private static final class Entry {
+        final List<Book> books;
+        final Predicate<Book> dependsOn;
+        final long weight;
+        
+        Entry(List<Book> books, Predicate<Book> dependsOn, long weight) {
+            this.books = books;
+            this.dependsOn = dependsOn;
+            this.weight = weight;
+        }
+    }
+    
+    // Count-min sketch of 4-bit counters, four rows deep. Once it has
+    // counted ten times its width every counter is halved, so the counts
+    // follow what is popular now rather than ever.
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+        private final byte[][] rows;
+        private final int shift;
+        private final int sampleSize;
+        private int additions;
+        
+        FrequencySketch(int minWidth) {
+            int width = Integer.highestOneBit(Math.max(16, minWidth - 1)) << 1;
+            rows = new byte[SEEDS.length][width];
+            shift = 32 - Integer.numberOfTrailingZeros(width);
+            sampleSize = width * 10;
+        }
+        
+        void increment(int hash) {
+            for (int row = 0; row < rows.length; row++) {
+                int index = (hash * SEEDS[row]) >>> shift;
+                if (rows[row][index] < 15) rows[row][index]++;
+            }
+            if (++additions == sampleSize) {
+                for (byte[] counters : rows) {
+                    for (int i = 0; i < counters.length; i++) {
+                        counters[i] >>= 1;
+                    }
+                }
+                additions /= 2;
+            }
+        }
+        
+        int estimate(int hash) {
+            int lowest = 15;
+            for (int row = 0; row < rows.length; row++) {
+                lowest = Math.min(lowest, rows[row][(hash * SEEDS[row]) >>> shift]);
+            }
+            return lowest;
+        }
+    }
+}
\ No newline at end of file
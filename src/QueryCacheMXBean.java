@@ -0,0 +1,26 @@
+// Hit and miss counts of a QueryCache, as JMX shows them.
+public interface QueryCacheMXBean {
+    long getHits();
+    
+    long getMisses();
+    
+    double getHitRate();
+    
+    long getEvictions();
+    
+    // New results turned away because the ones they would push out are
+    // asked for more often.
+    long getRejections();
+    
+    long getInvalidations();
+    
+    int getEntries();
+    
+    long getHeldBooks();
+    
+    int getMaxBooks();
+    
+    void clear();
+    
+    void resetStatistics();
+}
\ No newline at end of file
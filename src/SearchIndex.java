@@ -0,0 +1,168 @@
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.function.Predicate;
+
+// Inverted indexes behind LibraryManager.findBooks and query.
+// They only narrow the collection down to candidate slots; the caller still
+// checks every candidate, so results are exactly what a full scan returns.
+public class SearchIndex {
+    private final SubstringIndex titles;
+    private final SubstringIndex writers;
+    private final ValueDictionary categoryValues;
+    private final YearIndex years;
+    
+    public SearchIndex() {
+        titles = new SubstringIndex();
+        writers = new SubstringIndex();
+        categoryValues = new ValueDictionary();
+        years = new YearIndex();
+    }
+    
+    public void add(Book book, int slot) {
+        titles.add(lower(book.getBookName()), slot);
+        writers.add(StringPool.lower(book.getWriter()), slot);
+        categoryValues.add(StringPool.lower(book.getCategory()), slot);
+        years.add(book.getPublishDate(), slot);
+    }
+    
+    public void remove(Book book, int slot) {
+        titles.remove(lower(book.getBookName()), slot);
+        writers.remove(StringPool.lower(book.getWriter()), slot);
+        categoryValues.remove(StringPool.lower(book.getCategory()), slot);
+        years.remove(book.getPublishDate(), slot);
+    }
+    
+    // Only the fields that differ are reindexed. Common trigrams and
+    // categories have long postings, where every removal and insertion
+    // shifts the slots after it, so an update that only moves a book to
+    // another category leaves its title and writer alone.
+    public void replace(Book old, Book changed, int slot) {
+        String oldTitle = lower(old.getBookName());
+        String newTitle = lower(changed.getBookName());
+        if (!Objects.equals(oldTitle, newTitle)) {
+            titles.remove(oldTitle, slot);
+            titles.add(newTitle, slot);
+        }
+        String oldWriter = StringPool.lower(old.getWriter());
+        String newWriter = StringPool.lower(changed.getWriter());
+        if (!Objects.equals(oldWriter, newWriter)) {
+            writers.remove(oldWriter, slot);
+            writers.add(newWriter, slot);
+        }
+        String oldCategory = StringPool.lower(old.getCategory());
+        String newCategory = StringPool.lower(changed.getCategory());
+        if (!Objects.equals(oldCategory, newCategory)) {
+            categoryValues.remove(oldCategory, slot);
+            categoryValues.add(newCategory, slot);
+        }
+        if (old.getPublishDate() != changed.getPublishDate()) {
+            years.remove(old.getPublishDate(), slot);
+            years.add(changed.getPublishDate(), slot);
+        }
+    }
+    
+    // Sorted slots that may match Book.matchesSearch(searchText), or null if
+    // the term is too short for the index and a full scan is needed.
+    public int[] candidatesFor(String searchText) {
+        String searchLower = searchText.toLowerCase();
+        if (!SubstringIndex.canNarrow(searchLower)) return null;
+        
+        int[][] parts = {
+            titles.candidates(searchLower),
+            writers.candidates(searchLower),
+            categoryValues.candidates(value -> value.contains(searchLower)),
+            yearCandidates(searchText)
+        };
+        return union(parts);
+    }
+    
+    // Per-field narrowing for Criterion. Estimates are upper bounds on the
+    // candidates, Integer.MAX_VALUE when the field can't be narrowed; the
+    // candidates are only asked for when the estimate is bounded.
+    public int titleEstimate(String partLower) {
+        return titles.estimate(partLower);
+    }
+    
+    public int[] titleCandidates(String partLower) {
+        return titles.candidates(partLower);
+    }
+    
+    public int writerEstimate(String partLower) {
+        return writers.estimate(partLower);
+    }
+    
+    public int[] writerCandidates(String partLower) {
+        return writers.candidates(partLower);
+    }
+    
+    public int categoryEstimate(Predicate<String> matchesLowered) {
+        return categoryValues.estimate(matchesLowered);
+    }
+    
+    public int[] categoryCandidates(Predicate<String> matchesLowered) {
+        return categoryValues.candidates(matchesLowered);
+    }
+    
+    // Exact, unlike the other estimates.
+    public int yearCount(int minYear, int maxYear) {
+        return years.count(minYear, maxYear);
+    }
+    
+    public int[] yearCandidates(int minYear, int maxYear) {
+        return years.slots(minYear, maxYear);
+    }
+    
+    public SortedMap<Integer, Integer> countsByDecade() {
+        return years.countsByDecade();
+    }
+    
+    private int[] yearCandidates(String searchText) {
+        return years.slotsWhere(year -> String.valueOf(year).contains(searchText));
+    }
+    
+    static int[] intersect(int[] left, int[] right) {
+        int[] common = new int[Math.min(left.length, right.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < left.length && j < right.length) {
+            if (left[i] < right[j]) {
+                i++;
+            } else if (left[i] > right[j]) {
+                j++;
+            } else {
+                common[count++] = left[i];
+                i++;
+                j++;
+            }
+        }
+        return count == common.length ? common : Arrays.copyOf(common, count);
+    }
+    
+    static int[] union(int[][] parts) {
+        int total = 0;
+        for (int[] part : parts) {
+            total += part.length;
+        }
+        int[] merged = new int[total];
+        int at = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, merged, at, part.length);
+            at += part.length;
+        }
+        Arrays.sort(merged);
+        
+        int distinct = 0;
+        for (int i = 0; i < merged.length; i++) {
+            if (distinct == 0 || merged[distinct - 1] != merged[i]) {
+                merged[distinct++] = merged[i];
+            }
+        }
+        return distinct == merged.length ? merged : Arrays.copyOf(merged, distinct);
+    }
+    
+    private static String lower(String value) {
+        return value == null ? null : value.toLowerCase();
+    }
+}
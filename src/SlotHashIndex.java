@@ -0,0 +1,117 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+// Hash table from a key's hash code to the slots holding that key, for
+// indexes over a BookShelf. It stores no keys, only two ints per entry with
+// open addressing; every slot found under a hash is handed to the caller,
+// who checks it against the book in that slot. The shelf already holds the
+// key, so the index doesn't need its own copy of every title.
+public class SlotHashIndex {
+    private static final int EMPTY = -1;
+    
+    private int[] hashes;
+    private int[] slots;
+    private int size;
+    private int shift;
+    
+    public SlotHashIndex() {
+        this(0);
+    }
+    
+    public SlotHashIndex(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) capacity <<= 1;
+        allocate(capacity);
+    }
+    
+    public void add(int hash, int slot) {
+        if ((size + 1) * 2 > slots.length) {
+            grow();
+        }
+        insert(hash, slot);
+        size++;
+    }
+    
+    public boolean remove(int hash, int slot) {
+        int mask = slots.length - 1;
+        for (int i = home(hash); slots[i] != EMPTY; i = (i + 1) & mask) {
+            if (slots[i] == slot && hashes[i] == hash) {
+                deleteAt(i);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // The first slot under hash that the test accepts, or -1.
+    public int find(int hash, IntPredicate test) {
+        int mask = slots.length - 1;
+        for (int i = home(hash); slots[i] != EMPTY; i = (i + 1) & mask) {
+            if (hashes[i] == hash && test.test(slots[i])) {
+                return slots[i];
+            }
+        }
+        return EMPTY;
+    }
+    
+    public void forEach(int hash, IntConsumer action) {
+        int mask = slots.length - 1;
+        for (int i = home(hash); slots[i] != EMPTY; i = (i + 1) & mask) {
+            if (hashes[i] == hash) {
+                action.accept(slots[i]);
+            }
+        }
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    private int home(int hash) {
+        return (hash * 0x9E3779B9) >>> shift;
+    }
+    
+    private void insert(int hash, int slot) {
+        int mask = slots.length - 1;
+        int i = home(hash);
+        while (slots[i] != EMPTY) i = (i + 1) & mask;
+        hashes[i] = hash;
+        slots[i] = slot;
+    }
+    
+    // Linear probing without tombstones: entries after the hole that could
+    // have gone there are moved back, so every lookup still stops at the
+    // first empty entry.
+    private void deleteAt(int hole) {
+        int mask = slots.length - 1;
+        for (int next = (hole + 1) & mask; slots[next] != EMPTY; next = (next + 1) & mask) {
+            int home = home(hashes[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                hashes[hole] = hashes[next];
+                slots[hole] = slots[next];
+                hole = next;
+            }
+        }
+        slots[hole] = EMPTY;
+        size--;
+    }
+    
+    private void grow() {
+        int[] oldHashes = hashes;
+        int[] oldSlots = slots;
+        allocate(oldSlots.length * 2);
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] != EMPTY) {
+                insert(oldHashes[i], oldSlots[i]);
+            }
+        }
+    }
+    
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    }
+}
\ No newline at end of file
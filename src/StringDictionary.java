@@ -0,0 +1,54 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Numbers distinct strings so a column can hold an int per book instead of a
+// reference. Ids only ever grow and id 0 is null. The values array is
+// replaced, never shrunk, when it fills up, so a reader holding an old array
+// still finds every id that existed when it took it. Values are kept in
+// their StringPool form, next to their lower-cased form for searches.
+public class StringDictionary {
+    private final Map<String, Integer> ids;
+    private String[] values;
+    private String[] lowered;
+    private int size;
+    
+    public StringDictionary() {
+        ids = new HashMap<>();
+        values = new String[16];
+        lowered = new String[16];
+        size = 1;
+    }
+    
+    public int idOf(String value) {
+        if (value == null) return 0;
+        Integer id = ids.get(value);
+        if (id != null) return id;
+        
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            lowered = Arrays.copyOf(lowered, size * 2);
+        }
+        value = StringPool.canonical(value);
+        lowered[size] = StringPool.lower(value);
+        values[size] = value;
+        ids.put(value, size);
+        return size++;
+    }
+    
+    public String valueOf(int id) {
+        return values[id];
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    String[] values() {
+        return values;
+    }
+    
+    String[] lowered() {
+        return lowered;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,119 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Canonical copies of writer and category values. Catalogues repeat a few
+// thousand of them across millions of books, so every Book, the loaders and
+// the column dictionaries share one String per distinct value, and its
+// lower-cased form is worked out once instead of on every search.
+//
+// The pool only grows. Past MAX_VALUES new values are no longer pooled and
+// are returned as they are, so a stream of unique values can't fill the heap.
+public final class StringPool implements StringPoolMXBean {
+    private static final int MAX_VALUES = 1 << 20;
+    
+    private static final class Entry {
+        final String value;
+        final String lower;
+        // Identity hash of the last copy counted as dropped, so a caller
+        // canonicalizing the same copy again doesn't count it twice.
+        int lastCopy;
+        
+        Entry(String value) {
+            this.value = value;
+            this.lower = value.toLowerCase();
+        }
+    }
+    
+    private static final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private static final LongAdder copiesDropped = new LongAdder();
+    private static final LongAdder bytesSaved = new LongAdder();
+    
+    private static final StringPool BEAN = new StringPool();
+    
+    private StringPool() {
+    }
+    
+    public static String canonical(String value) {
+        Entry entry = entryFor(value);
+        return entry == null ? value : entry.value;
+    }
+    
+    // value.toLowerCase(), without the work if the value is pooled.
+    public static String lower(String value) {
+        if (value == null) return null;
+        Entry entry = entries.get(value);
+        return entry == null ? value.toLowerCase() : entry.lower;
+    }
+    
+    public static Stats stats() {
+        return new Stats(entries.size(), copiesDropped.sum(), bytesSaved.sum());
+    }
+    
+    public static void registerMBean() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(BEAN, new ObjectName("bookmanager:type=StringPool"));
+    }
+    
+    @Override
+    public int getDistinctValues() {
+        return entries.size();
+    }
+    
+    @Override
+    public long getCopiesDropped() {
+        return copiesDropped.sum();
+    }
+    
+    @Override
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+    
+    private static Entry entryFor(String value) {
+        if (value == null) return null;
+        Entry entry = entries.get(value);
+        if (entry == null) {
+            if (entries.size() >= MAX_VALUES) return null;
+            entry = entries.computeIfAbsent(value, Entry::new);
+        }
+        if (entry.value == value) return entry;
+        int copy = System.identityHashCode(value);
+        if (entry.lastCopy != copy) {
+            entry.lastCopy = copy;
+            copiesDropped.increment();
+            bytesSaved.add(copySize(value));
+        }
+        return entry;
+    }
+    
+    // Heap taken by a String and its array with compact strings: a 24 byte
+    // object plus a 16 byte array header and the chars, rounded up to 8.
+    private static long copySize(String value) {
+        boolean wide = false;
+        for (int i = 0; i < value.length() && !wide; i++) {
+            wide = value.charAt(i) > 0xFF;
+        }
+        long chars = (long) value.length() * (wide ? 2 : 1);
+        return 24 + ((16 + chars + 7) & ~7L);
+    }
+    
+    public static final class Stats {
+        public final int distinctValues;
+        public final long copiesDropped;
+        public final long bytesSaved;
+        
+        Stats(int distinctValues, long copiesDropped, long bytesSaved) {
+            this.distinctValues = distinctValues;
+            this.copiesDropped = copiesDropped;
+            this.bytesSaved = bytesSaved;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%d distinct values, %d duplicate copies dropped (about %d KB saved)",
+                                 distinctValues, copiesDropped, bytesSaved / 1024);
+        }
+    }
+}
\ No newline at end of file
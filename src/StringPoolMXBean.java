@@ -0,0 +1,9 @@
+// How much the StringPool shares, as JMX shows it.
+public interface StringPoolMXBean {
+    int getDistinctValues();
+    
+    // Duplicate copies handed in and replaced by the pooled value.
+    long getCopiesDropped();
+    
+    long getBytesSaved();
+}
\ No newline at end of file
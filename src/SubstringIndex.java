@@ -0,0 +1,87 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Trigram index over one lower-cased text field. A value contains the query
+// only if it contains every trigram of the query, so intersecting the
+// trigram postings gives a candidate set that still has to be verified.
+public class SubstringIndex {
+    public static final int GRAM_LENGTH = 3;
+    
+    private final Map<Long, PostingList> grams;
+    
+    public SubstringIndex() {
+        grams = new HashMap<>();
+    }
+    
+    public void add(String lowered, int slot) {
+        if (lowered == null) return;
+        for (int i = 0; i + GRAM_LENGTH <= lowered.length(); i++) {
+            grams.computeIfAbsent(gramAt(lowered, i), g -> new PostingList()).add(slot);
+        }
+    }
+    
+    public void remove(String lowered, int slot) {
+        if (lowered == null) return;
+        for (int i = 0; i + GRAM_LENGTH <= lowered.length(); i++) {
+            long gram = gramAt(lowered, i);
+            PostingList slots = grams.get(gram);
+            if (slots != null && slots.remove(slot) && slots.isEmpty()) {
+                grams.remove(gram);
+            }
+        }
+    }
+    
+    public static boolean canNarrow(String loweredQuery) {
+        return loweredQuery.length() >= GRAM_LENGTH;
+    }
+    
+    // Upper bound on the candidates a query can produce: the rarest trigram.
+    public int estimate(String loweredQuery) {
+        if (!canNarrow(loweredQuery)) return Integer.MAX_VALUE;
+        
+        int smallest = Integer.MAX_VALUE;
+        for (int i = 0; i + GRAM_LENGTH <= loweredQuery.length(); i++) {
+            PostingList slots = grams.get(gramAt(loweredQuery, i));
+            if (slots == null) return 0;
+            smallest = Math.min(smallest, slots.size());
+        }
+        return smallest;
+    }
+    
+    // Sorted candidate slots, or null when the query is too short to have a
+    // trigram and every slot has to be treated as a candidate.
+    public int[] candidates(String loweredQuery) {
+        if (!canNarrow(loweredQuery)) return null;
+        
+        int gramCount = loweredQuery.length() - GRAM_LENGTH + 1;
+        PostingList[] postings = new PostingList[gramCount];
+        for (int i = 0; i < gramCount; i++) {
+            postings[i] = grams.get(gramAt(loweredQuery, i));
+            if (postings[i] == null) return new int[0];
+        }
+        Arrays.sort(postings, (a, b) -> Integer.compare(a.size(), b.size()));
+        
+        int[] result = postings[0].toArray();
+        int count = result.length;
+        for (int p = 1; p < postings.length && count > 0; p++) {
+            if (postings[p] == postings[p - 1]) continue;
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (postings[p].contains(result[i])) {
+                    result[kept++] = result[i];
+                }
+            }
+            count = kept;
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+    
+    public int distinctGrams() {
+        return grams.size();
+    }
+    
+    private static long gramAt(String text, int at) {
+        return ((long) text.charAt(at) << 32) | ((long) text.charAt(at + 1) << 16) | text.charAt(at + 2);
+    }
+}
@@ -0,0 +1,45 @@
+import java.util.concurrent.CancellationException;
+
+// Progress sink and cancellation flag for long-running manager calls such
+// as load, save and search. Callers on the EDT pass one in from a worker;
+// everyone else gets NONE.
+public interface TaskProgress {
+    TaskProgress NONE = new TaskProgress() {
+        @Override
+        public void update(long done, long total) {
+        }
+        
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+    
+    void update(long done, long total);
+    
+    boolean isCancelled();
+    
+    default void checkpoint(long done, long total) {
+        update(done, total);
+        if (isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+    
+    // Reports this progress as step index of steps equal parts of the whole.
+    default TaskProgress phase(int index, int steps) {
+        TaskProgress whole = this;
+        return new TaskProgress() {
+            @Override
+            public void update(long done, long total) {
+                if (total <= 0) return;
+                whole.update(index * total + done, steps * total);
+            }
+            
+            @Override
+            public boolean isCancelled() {
+                return whole.isCancelled();
+            }
+        };
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+// Interns the distinct lower-cased values of a low-cardinality field such as
+// category. A query is checked once per distinct value instead of once per
+// book, and the matching values' slots are unioned.
+public class ValueDictionary {
+    private final Map<String, Integer> ids;
+    private final List<String> values;
+    private final List<PostingList> slotsById;
+    
+    public ValueDictionary() {
+        ids = new HashMap<>();
+        values = new ArrayList<>();
+        slotsById = new ArrayList<>();
+    }
+    
+    public void add(String lowered, int slot) {
+        if (lowered == null) return;
+        Integer id = ids.get(lowered);
+        if (id == null) {
+            id = values.size();
+            ids.put(lowered, id);
+            values.add(lowered);
+            slotsById.add(new PostingList());
+        }
+        slotsById.get(id).add(slot);
+    }
+    
+    // Ids stay allocated when their last slot goes away; the dictionary is
+    // rebuilt together with the rest of the index.
+    public void remove(String lowered, int slot) {
+        if (lowered == null) return;
+        Integer id = ids.get(lowered);
+        if (id != null) {
+            slotsById.get(id).remove(slot);
+        }
+    }
+    
+    public int estimate(Predicate<String> matchesLowered) {
+        int total = 0;
+        for (int id = 0; id < values.size(); id++) {
+            if (matchesLowered.test(values.get(id))) {
+                total += slotsById.get(id).size();
+            }
+        }
+        return total;
+    }
+    
+    public int[] candidates(Predicate<String> matchesLowered) {
+        List<int[]> parts = new ArrayList<>();
+        for (int id = 0; id < values.size(); id++) {
+            if (matchesLowered.test(values.get(id)) && !slotsById.get(id).isEmpty()) {
+                parts.add(slotsById.get(id).toArray());
+            }
+        }
+        return SearchIndex.union(parts.toArray(new int[0][]));
+    }
+    
+    public int distinctValues() {
+        return values.size();
+    }
+}
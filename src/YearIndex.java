@@ -0,0 +1,141 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+// Slots by publication year, kept in year order so that a range of years is
+// found with one tree lookup and then read off year by year. Counts never
+// touch the books: a Fenwick tree over the distinct years keeps running
+// totals, so counting a range costs two prefix sums however many years it
+// spans.
+public class YearIndex {
+    private final TreeMap<Integer, PostingList> years;
+    // The years the tree covers, sorted. A year whose books are all gone
+    // keeps its place with a count of 0; the tree is rebuilt over the
+    // current years only when a new year turns up.
+    private int[] treeYears = new int[0];
+    // 1-based Fenwick tree of books per year in treeYears.
+    private int[] tree = new int[1];
+    
+    public YearIndex() {
+        years = new TreeMap<>();
+    }
+    
+    public void add(int year, int slot) {
+        PostingList slots = years.get(year);
+        if (slots == null) {
+            slots = new PostingList();
+            slots.add(slot);
+            years.put(year, slots);
+            if (Arrays.binarySearch(treeYears, year) < 0) {
+                rebuildTree();
+                return;
+            }
+            bump(year, 1);
+            return;
+        }
+        int before = slots.size();
+        slots.add(slot);
+        if (slots.size() > before) {
+            bump(year, 1);
+        }
+    }
+    
+    public void remove(int year, int slot) {
+        PostingList slots = years.get(year);
+        if (slots != null && slots.remove(slot)) {
+            bump(year, -1);
+            if (slots.isEmpty()) {
+                years.remove(year);
+            }
+        }
+    }
+    
+    // Both ends are included.
+    public int count(int minYear, int maxYear) {
+        if (minYear > maxYear) return 0;
+        return booksBefore(yearsAtOrBelow(maxYear)) - booksBefore(yearsBelow(minYear));
+    }
+    
+    // Sorted slots of every book published from minYear to maxYear.
+    public int[] slots(int minYear, int maxYear) {
+        if (minYear > maxYear) return new int[0];
+        return union(years.subMap(minYear, true, maxYear, true));
+    }
+    
+    // Sorted slots of every book whose year passes the test; used where the
+    // years can't be given as a range.
+    public int[] slotsWhere(IntPredicate yearTest) {
+        TreeMap<Integer, PostingList> matching = new TreeMap<>();
+        for (Map.Entry<Integer, PostingList> entry : years.entrySet()) {
+            if (yearTest.test(entry.getKey())) {
+                matching.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return union(matching);
+    }
+    
+    // Books per decade, keyed by the decade's first year (1990 for
+    // 1990-1999, -10 for -10 to -1), in year order. Decades without books
+    // are left out.
+    public SortedMap<Integer, Integer> countsByDecade() {
+        SortedMap<Integer, Integer> counts = new TreeMap<>();
+        for (Map.Entry<Integer, PostingList> entry : years.entrySet()) {
+            counts.merge(Math.floorDiv(entry.getKey(), 10) * 10, entry.getValue().size(), Integer::sum);
+        }
+        return counts;
+    }
+    
+    public int distinctYears() {
+        return years.size();
+    }
+    
+    private void bump(int year, int delta) {
+        for (int i = Arrays.binarySearch(treeYears, year) + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+    
+    // Books in the first n years of treeYears.
+    private int booksBefore(int n) {
+        int total = 0;
+        for (int i = n; i > 0; i -= i & -i) {
+            total += tree[i];
+        }
+        return total;
+    }
+    
+    private int yearsBelow(int year) {
+        if (year == Integer.MIN_VALUE) return 0;
+        return yearsAtOrBelow(year - 1);
+    }
+    
+    private int yearsAtOrBelow(int year) {
+        int at = Arrays.binarySearch(treeYears, year);
+        return at >= 0 ? at + 1 : -at - 1;
+    }
+    
+    private void rebuildTree() {
+        treeYears = new int[years.size()];
+        tree = new int[years.size() + 1];
+        int i = 0;
+        for (Map.Entry<Integer, PostingList> entry : years.entrySet()) {
+            treeYears[i++] = entry.getKey();
+            tree[i] += entry.getValue().size();
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+    
+    private static int[] union(Map<Integer, PostingList> byYear) {
+        int[][] parts = new int[byYear.size()][];
+        int count = 0;
+        for (PostingList slots : byYear.values()) {
+            parts[count++] = slots.toArray();
+        }
+        return SearchIndex.union(parts);
+    }
+}
\ No newline at end of file
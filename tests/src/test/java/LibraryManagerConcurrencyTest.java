@@ -0,0 +1,235 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Many threads change and read one manager at once. Every writer owns its
+// own books, so each of its changes has to succeed and what the collection
+// holds at the end is known exactly; a lost update shows up as a change
+// that fails or a book that ends up different. Readers check that every
+// answer they get is consistent in itself while the writers run.
+class LibraryManagerConcurrencyTest {
+    private static final int WRITERS = 8;
+    private static final int READERS = 8;
+    private static final int CHANGES = 3000;
+    private static final String[] CATEGORIES = { "Novel", "Poetry", "History", "Science", "Drama" };
+    
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.MINUTES)
+    void readersAndWritersLoseNothing() throws Exception {
+        LibraryManager manager = new LibraryManager();
+        ExecutorService threads = Executors.newFixedThreadPool(WRITERS + READERS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            List<Future<Map<String, Book>>> writers = new ArrayList<>();
+            for (int i = 0; i < WRITERS; i++) {
+                int writer = i;
+                writers.add(threads.submit(() -> write(manager, writer, start)));
+            }
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int i = 0; i < READERS; i++) {
+                int reader = i;
+                readers.add(threads.submit(() -> read(manager, reader, start, writing)));
+            }
+            start.countDown();
+            
+            Map<String, Book> expected = new HashMap<>();
+            try {
+                for (Future<Map<String, Book>> writer : writers) {
+                    expected.putAll(writer.get());
+                }
+            } finally {
+                writing.set(false);
+            }
+            for (Future<Integer> reader : readers) {
+                assertTrue(reader.get() > 0, "a reader never got to read");
+            }
+            
+            assertEquals(expected.size(), manager.countBooks());
+            Map<String, Book> held = new HashMap<>();
+            for (Book book : manager.getAllMyBooks()) {
+                held.put(keyOf(book), book);
+            }
+            assertEquals(expected.size(), held.size(), "the collection holds equal books");
+            for (Map.Entry<String, Book> entry : expected.entrySet()) {
+                Book book = held.get(entry.getKey());
+                assertNotNull(book, "lost " + entry.getKey());
+                assertEquals(describe(entry.getValue()), describe(book));
+            }
+            assertIndexesAgree(manager, expected.values());
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+    
+    // Adds, changes, checks in and out and removes books of its own, one at
+    // a time and in batches. Returns the books it left in the collection.
+    private static Map<String, Book> write(LibraryManager manager, int writer, CountDownLatch start) throws Exception {
+        Random random = new Random(writer);
+        Map<String, Book> mine = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        int added = 0;
+        start.await();
+        for (int i = 0; i < CHANGES; i++) {
+            int roll = random.nextInt(100);
+            if (keys.isEmpty() || roll < 40) {
+                Book book = newBook(writer, added++, random);
+                assertTrue(manager.addBookToCollection(book), "add " + describe(book));
+                remember(mine, keys, book);
+            } else if (roll < 60) {
+                Book current = mine.get(keys.get(random.nextInt(keys.size())));
+                Book changed = random.nextBoolean()
+                        ? copy(current, current.getBookName(), current.getPublishDate())
+                        : copy(current, "W" + writer + " renamed " + added++, 1900 + random.nextInt(125));
+                changed.changeCategory(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+                assertTrue(manager.updateExistingBook(current, changed), "update " + describe(current));
+                forget(mine, keys, current);
+                remember(mine, keys, changed);
+            } else if (roll < 75) {
+                Book book = mine.get(keys.get(random.nextInt(keys.size())));
+                assertTrue(manager.setBookInStock(book, !book.isInStock()), "check in/out " + describe(book));
+                book.setInStock(!book.isInStock());
+            } else if (roll < 90) {
+                Book book = mine.get(keys.get(random.nextInt(keys.size())));
+                assertTrue(manager.removeBookFromCollection(book), "remove " + describe(book));
+                forget(mine, keys, book);
+            } else {
+                List<BookChange> batch = new ArrayList<>();
+                for (int j = 0; j < 4; j++) {
+                    Book book = newBook(writer, added++, random);
+                    batch.add(BookChange.add(book));
+                    remember(mine, keys, book);
+                }
+                Book book = mine.get(keys.get(random.nextInt(keys.size() - 4)));
+                batch.add(BookChange.setInStock(book, !book.isInStock()));
+                book.setInStock(!book.isInStock());
+                for (BookChange.Outcome outcome : manager.applyChanges(batch, true)) {
+                    assertEquals(BookChange.Outcome.APPLIED, outcome, "batch " + batch);
+                }
+            }
+        }
+        return mine;
+    }
+    
+    // Reads until the writers are done and returns how many rounds it made.
+    private static int read(LibraryManager manager, int reader, CountDownLatch start, AtomicBoolean writing)
+            throws Exception {
+        Random random = new Random(1000 + reader);
+        start.await();
+        int rounds = 0;
+        while (writing.get() || rounds == 0) {
+            List<Book> all = manager.getAllMyBooks();
+            Set<String> keys = new HashSet<>();
+            for (Book book : all) {
+                assertTrue(keys.add(keyOf(book)), "listed twice: " + describe(book));
+            }
+            
+            String term = "w" + random.nextInt(WRITERS) + " title " + random.nextInt(20);
+            for (Book book : manager.findBooks(term)) {
+                assertTrue(book.matchesSearch(term), describe(book) + " found for " + term);
+            }
+            
+            String author = "Writer " + random.nextInt(WRITERS);
+            String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+            int from = 1900 + random.nextInt(125);
+            for (Book book : manager.searchWithFilters(null, author, category, from, from + 10)) {
+                assertEquals(author, book.getWriter());
+                assertEquals(category, book.getCategory());
+                assertTrue(book.getPublishDate() >= from && book.getPublishDate() <= from + 10, describe(book));
+            }
+            
+            if (!all.isEmpty()) {
+                Book sample = all.get(random.nextInt(all.size()));
+                Book located = manager.locateBookByTitle(sample.getBookName());
+                if (located != null) {
+                    assertTrue(located.getBookName().equalsIgnoreCase(sample.getBookName()), describe(located));
+                }
+            }
+            rounds++;
+        }
+        return rounds;
+    }
+    
+    // Once the writers are done every index has to lead to every book, and
+    // answer the same as one built from scratch.
+    private static void assertIndexesAgree(LibraryManager manager, Iterable<Book> books) {
+        LibraryManager rebuilt = new LibraryManager();
+        for (Book book : books) {
+            Book exact = manager.locateExactBook(book.getBookName(), book.getWriter(), book.getPublishDate());
+            assertNotNull(exact, "no key index entry for " + describe(book));
+            assertTrue(keysOf(manager.findBooks(book.getBookName())).contains(keyOf(book)),
+                       "no text index entry for " + describe(book));
+            assertTrue(keysOf(manager.searchWithFilters(null, book.getWriter(), book.getCategory(),
+                                                        book.getPublishDate())).contains(keyOf(book)),
+                       "no field index entry for " + describe(book));
+            rebuilt.addBookToCollection(copy(book, book.getBookName(), book.getPublishDate()));
+        }
+        for (int writer = 0; writer < WRITERS; writer++) {
+            for (String term : new String[] { "w" + writer + " title 1", "renamed", "Writer " + writer }) {
+                assertEquals(keysOf(rebuilt.findBooks(term)), keysOf(manager.findBooks(term)), term);
+            }
+            for (String category : CATEGORIES) {
+                assertEquals(keysOf(rebuilt.searchWithFilters("title", "Writer " + writer, category, 1950, 2000)),
+                             keysOf(manager.searchWithFilters("title", "Writer " + writer, category, 1950, 2000)),
+                             category);
+            }
+        }
+    }
+    
+    private static Book newBook(int writer, int number, Random random) {
+        Book book = new Book("W" + writer + " title " + number, "Writer " + writer, 1900 + random.nextInt(125),
+                             CATEGORIES[random.nextInt(CATEGORIES.length)]);
+        book.setInStock(random.nextBoolean());
+        return book;
+    }
+    
+    private static Book copy(Book book, String title, int year) {
+        Book copy = new Book(title, book.getWriter(), year, book.getCategory());
+        copy.setInStock(book.isInStock());
+        return copy;
+    }
+    
+    private static void remember(Map<String, Book> books, List<String> keys, Book book) {
+        books.put(keyOf(book), book);
+        keys.add(keyOf(book));
+    }
+    
+    private static void forget(Map<String, Book> books, List<String> keys, Book book) {
+        books.remove(keyOf(book));
+        keys.remove(keyOf(book));
+    }
+    
+    private static Set<String> keysOf(List<Book> books) {
+        Set<String> keys = new HashSet<>();
+        for (Book book : books) {
+            keys.add(keyOf(book));
+        }
+        return keys;
+    }
+    
+    private static String keyOf(Book book) {
+        return book.getBookName().toLowerCase() + "|" + book.getWriter().toLowerCase() + "|" + book.getPublishDate();
+    }
+    
+    private static String describe(Book book) {
+        return book.getBookName() + " | " + book.getWriter() + " | " + book.getPublishDate() + " | "
+                + book.getCategory() + " | " + (book.isInStock() ? "in" : "out");
+    }
+}